@@ -0,0 +1,87 @@
+package net.minecraftforge.common.chunkio;
+
+import net.minecraft.util.math.ChunkPos;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sponge: Compares the per-tick cost of finding the finished chunk loads
+ * by scanning all queued loads, like Forge's {@link ChunkIOExecutor#tick()}
+ * did, with draining the completion queue the finished loads publish
+ * themselves to. The scan grows with the number of queued loads, draining
+ * only with the number of loads that finished since the last tick.
+ *
+ * <p>Only the lookup is measured, finishing the loads is the same for both.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ChunkIOExecutorTickBenchmark
+{
+    @Param({"100", "1000", "10000"})
+    public int queued;
+
+    @Param({"0", "16"})
+    public int finishedPerTick;
+
+    private final Map<Long, ChunkIOProvider> tasks = new ConcurrentHashMap<>();
+    private final Queue<ChunkIOProvider> finished = new ConcurrentLinkedQueue<>();
+    private ChunkIOProvider[] finishing;
+
+    @Setup
+    public void setup()
+    {
+        this.finishing = new ChunkIOProvider[this.finishedPerTick];
+        for (int i = 0; i < this.queued; i++)
+        {
+            // Roughly the area around a joining player
+            int x = i % 64;
+            int z = i / 64;
+            ChunkIOProvider task = new ChunkIOProvider(null, x, z, null, null, this.finished);
+            this.tasks.put(ChunkPos.asLong(x, z), task);
+            if (i < this.finishing.length)
+                this.finishing[i] = task;
+        }
+    }
+
+    @Benchmark
+    public void scanQueued(Blackhole blackhole)
+    {
+        for (ChunkIOProvider task : this.tasks.values())
+        {
+            if (task.runFinished())
+                blackhole.consume(task);
+        }
+    }
+
+    @Benchmark
+    public void drainFinished(Blackhole blackhole)
+    {
+        // Published by the worker threads in between two ticks
+        for (ChunkIOProvider task : this.finishing)
+            this.finished.add(task);
+
+        ChunkIOProvider task;
+        while ((task = this.finished.poll()) != null)
+            blackhole.consume(task);
+    }
+}
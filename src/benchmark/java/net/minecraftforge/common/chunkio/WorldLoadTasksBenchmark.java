@@ -0,0 +1,133 @@
+package net.minecraftforge.common.chunkio;
+
+import net.minecraft.util.math.ChunkPos;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sponge: Compares queueing and dropping chunk loads in Forge's global map
+ * keyed by {@code QueuedChunk} with the per-world {@link WorldLoadTasks}
+ * keyed by the packed chunk coordinates. Each thread is a player flying
+ * along the x axis: every operation queues the row of chunks entering its
+ * view and drops the row leaving it.
+ *
+ * <p>With {@code worlds} set to 1 all players are in the same world, so the
+ * per-world tables are contended as much as the global map.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class WorldLoadTasksBenchmark
+{
+    private static final int VIEW_DISTANCE = 10;
+
+    @Param({"1", "4"})
+    public int worlds;
+
+    private final Map<QueuedChunk, ChunkIOProvider> globalTasks = new ConcurrentHashMap<>();
+    private Object[] worldKeys;
+    private WorldLoadTasks[] worldTasks;
+    private ChunkIOProvider task;
+
+    @Setup
+    public void setup()
+    {
+        this.worldKeys = new Object[this.worlds];
+        this.worldTasks = new WorldLoadTasks[this.worlds];
+        for (int i = 0; i < this.worlds; i++)
+        {
+            this.worldKeys[i] = new Object();
+            this.worldTasks[i] = new WorldLoadTasks(null);
+        }
+        this.task = new ChunkIOProvider(null, 0, 0, null, null, null);
+    }
+
+    @State(Scope.Thread)
+    public static class Player
+    {
+        private static final AtomicInteger counter = new AtomicInteger();
+
+        final int id = counter.getAndIncrement();
+        // Players of the same world don't watch the same chunks
+        final int offsetZ = this.id * (VIEW_DISTANCE * 2 + 1);
+        int x;
+    }
+
+    @Benchmark
+    public void queuedChunkKeys(Player player)
+    {
+        Object world = this.worldKeys[player.id % this.worlds];
+        int x = player.x++;
+        for (int z = player.offsetZ - VIEW_DISTANCE; z <= player.offsetZ + VIEW_DISTANCE; z++)
+        {
+            this.globalTasks.put(new QueuedChunk(x + VIEW_DISTANCE, z, world), this.task);
+            this.globalTasks.remove(new QueuedChunk(x - VIEW_DISTANCE - 1, z, world));
+        }
+    }
+
+    @Benchmark
+    public void worldLoadTasks(Player player)
+    {
+        WorldLoadTasks tasks = this.worldTasks[player.id % this.worlds];
+        int x = player.x++;
+        for (int z = player.offsetZ - VIEW_DISTANCE; z <= player.offsetZ + VIEW_DISTANCE; z++)
+        {
+            tasks.put(ChunkPos.asLong(x + VIEW_DISTANCE, z), this.task);
+            tasks.remove(ChunkPos.asLong(x - VIEW_DISTANCE - 1, z), this.task);
+        }
+    }
+
+    /**
+     * The key of Forge's global task map, with the world as an object so it
+     * can be created without a world.
+     */
+    private static final class QueuedChunk
+    {
+        final int x;
+        final int z;
+        final Object world;
+
+        QueuedChunk(int x, int z, Object world)
+        {
+            this.x = x;
+            this.z = z;
+            this.world = world;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return (this.x * 31 + this.z * 29) ^ this.world.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object object)
+        {
+            if (object instanceof QueuedChunk)
+            {
+                QueuedChunk other = (QueuedChunk) object;
+                return this.x == other.x && this.z == other.z && this.world == other.world;
+            }
+            return false;
+        }
+    }
+}
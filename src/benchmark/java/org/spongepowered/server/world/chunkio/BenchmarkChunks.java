@@ -0,0 +1,146 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.world.chunkio;
+
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.world.chunk.storage.RegionFile;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Creates the chunk data and region files the benchmarks work with.
+ */
+final class BenchmarkChunks {
+
+    static final int REGION_SIZE = 32;
+    static final int REGION_CHUNKS = REGION_SIZE * REGION_SIZE;
+
+    private BenchmarkChunks() {
+    }
+
+    /**
+     * Creates chunk data that is structured like a generated overworld chunk
+     * and compresses to a similar size.
+     *
+     * @param x The x coordinate of the chunk
+     * @param z The z coordinate of the chunk
+     * @param random The random to fill the block sections with
+     * @return The chunk data
+     */
+    static NBTTagCompound createChunk(int x, int z, Random random) {
+        final NBTTagCompound level = new NBTTagCompound();
+        level.setInteger("xPos", x);
+        level.setInteger("zPos", z);
+        level.setLong("LastUpdate", 0);
+        level.setBoolean("TerrainPopulated", true);
+
+        final NBTTagList sections = new NBTTagList();
+        for (int y = 0; y < 8; y++) {
+            final byte[] blocks = new byte[4096];
+            for (int i = 0; i < blocks.length; i++) {
+                // Mostly stone with some other blocks mixed in
+                blocks[i] = random.nextInt(8) == 0 ? (byte) random.nextInt(16) : 1;
+            }
+
+            final byte[] skyLight = new byte[2048];
+            Arrays.fill(skyLight, y >= 4 ? (byte) 0xFF : 0);
+
+            final NBTTagCompound section = new NBTTagCompound();
+            section.setByte("Y", (byte) y);
+            section.setByteArray("Blocks", blocks);
+            section.setByteArray("Data", new byte[2048]);
+            section.setByteArray("BlockLight", new byte[2048]);
+            section.setByteArray("SkyLight", skyLight);
+            sections.appendTag(section);
+        }
+        level.setTag("Sections", sections);
+
+        final byte[] biomes = new byte[256];
+        Arrays.fill(biomes, (byte) 1);
+        level.setByteArray("Biomes", biomes);
+        final int[] heightMap = new int[256];
+        Arrays.fill(heightMap, 64);
+        level.setIntArray("HeightMap", heightMap);
+        level.setTag("Entities", new NBTTagList());
+        level.setTag("TileEntities", new NBTTagList());
+
+        final NBTTagCompound compound = new NBTTagCompound();
+        compound.setInteger("DataVersion", 1343);
+        compound.setTag("Level", level);
+        return compound;
+    }
+
+    /**
+     * Writes all chunks of a region with the vanilla {@link RegionFile}.
+     *
+     * @param worldDir The directory to create the region directory in
+     * @param regionX The x coordinate of the region
+     * @param regionZ The z coordinate of the region
+     * @param random The random to create the chunks with
+     * @return The region file
+     * @throws IOException If the region file could not be written
+     */
+    static File writeRegion(File worldDir, int regionX, int regionZ, Random random) throws IOException {
+        final File file = new File(worldDir, "region/r." + regionX + "." + regionZ + ".mca");
+        Files.createDirectories(file.getParentFile().toPath());
+
+        final RegionFile region = new RegionFile(file);
+        try {
+            for (int x = 0; x < REGION_SIZE; x++) {
+                for (int z = 0; z < REGION_SIZE; z++) {
+                    try (DataOutputStream out = region.getChunkDataOutputStream(x, z)) {
+                        CompressedStreamTools.write(createChunk(regionX * REGION_SIZE + x, regionZ * REGION_SIZE + z, random), out);
+                    }
+                }
+            }
+        } finally {
+            region.close();
+        }
+        return file;
+    }
+
+    static File createTempDir() throws IOException {
+        return Files.createTempDirectory("chunkio-benchmark").toFile();
+    }
+
+    static void delete(File dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,178 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.world.chunkio;
+
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.chunk.storage.RegionFile;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * Compares saving chunks to a vanilla {@link RegionFile} with appending
+ * them to a {@link LogChunkStorage}. Chunks are saved to random positions
+ * of a single region like the chunk save thread does, and are compressed
+ * before the benchmark starts, so only the storage is measured.
+ *
+ * <p>The size of the storage on disk at the end of each iteration is
+ * reported as the secondary results of {@link Space}. The log storage grows
+ * until old segments are compacted, which happens in the background every
+ * 30 seconds, so use long enough iterations to compare the space
+ * overhead.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ChunkStorageWriteBenchmark {
+
+    private static final int CHUNKS = 256;
+
+    @Param({"ANVIL", "LOG"})
+    public ChunkIOSettings.StorageFormat format;
+
+    private final byte[][] chunks = new byte[CHUNKS][];
+    // The length of the data last written to each chunk of the region
+    private final int[] lengths = new int[BenchmarkChunks.REGION_CHUNKS];
+
+    private File worldDir;
+    @Nullable private RawRegionFile region;
+    @Nullable private LogChunkStorage log;
+
+    @Setup
+    public void setup() throws IOException {
+        final Random random = new Random(0);
+        for (int i = 0; i < CHUNKS; i++) {
+            this.chunks[i] = ChunkCompressor.get().encode(BenchmarkChunks.createChunk(i & 31, i >> 5, random));
+        }
+
+        this.worldDir = BenchmarkChunks.createTempDir();
+        if (this.format == ChunkIOSettings.StorageFormat.ANVIL) {
+            final File regionDir = new File(this.worldDir, "region");
+            regionDir.mkdirs();
+            this.region = new RawRegionFile(new File(regionDir, "r.0.0.mca"));
+        } else {
+            this.log = new LogChunkStorage(new File(this.worldDir, LogChunkStorage.DIRECTORY));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (this.region != null) {
+            this.region.close();
+        }
+        if (this.log != null) {
+            this.log.close();
+        }
+        BenchmarkChunks.delete(this.worldDir);
+    }
+
+    // JMH only reports the counters of states that are passed to the benchmark
+    @Benchmark
+    public void save(Space space) throws IOException {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int chunk = random.nextInt(BenchmarkChunks.REGION_CHUNKS);
+        final byte[] data = this.chunks[random.nextInt(CHUNKS)];
+        if (this.region != null) {
+            this.region.writeCompressed(chunk & 31, chunk >> 5, data, data.length);
+        } else {
+            this.log.write(new ChunkPos[] {new ChunkPos(chunk & 31, chunk >> 5)}, new byte[][] {data}, new int[] {data.length});
+        }
+        this.lengths[chunk] = data.length;
+    }
+
+    private long getDiskBytes() {
+        return this.region != null ? new File(this.worldDir, "region/r.0.0.mca").length() : this.log.getTotalBytes();
+    }
+
+    private long getLiveBytes() {
+        long bytes = 0;
+        for (int length : this.lengths) {
+            bytes += length;
+        }
+        return bytes;
+    }
+
+    /**
+     * The size of the storage on disk at the end of each iteration, compared
+     * to the compressed data of all chunks in it.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Space {
+
+        public long diskKb;
+        public long liveKb;
+        public double amplification;
+
+        @TearDown(Level.Iteration)
+        public void measure(ChunkStorageWriteBenchmark benchmark) {
+            final long disk = benchmark.getDiskBytes();
+            final long live = benchmark.getLiveBytes();
+            this.diskKb = disk / 1024;
+            this.liveKb = live / 1024;
+            this.amplification = live > 0 ? (double) disk / live : 0;
+        }
+
+    }
+
+    /**
+     * Writes already compressed data, like {@link AnvilChunkStorage} does
+     * through its accessor.
+     */
+    private static final class RawRegionFile extends RegionFile {
+
+        RawRegionFile(File file) {
+            super(file);
+        }
+
+        void writeCompressed(int x, int z, byte[] data, int length) {
+            write(x, z, data, length);
+        }
+
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.world.chunkio;
+
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.world.chunk.storage.RegionFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading random chunks of a single region file through the
+ * synchronized vanilla {@link RegionFile} with the lock-free
+ * {@link MappedRegionFile}, from several threads at the same time like the
+ * chunk I/O threads do. Run with {@code -t 1} to compare single threaded
+ * reads.
+ *
+ * <p>Both include decompressing the chunk. The mapped reader uses the pooled
+ * {@link ChunkDecompressor}, see {@link ChunkDecompressionBenchmark} for the
+ * difference that makes on its own.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class RegionReadBenchmark {
+
+    private File worldDir;
+    private RegionFile region;
+
+    @Setup
+    public void setup() throws IOException {
+        this.worldDir = BenchmarkChunks.createTempDir();
+        this.region = new RegionFile(BenchmarkChunks.writeRegion(this.worldDir, 0, 0, new Random(0)));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.region.close();
+        MappedRegionFile.clearCache();
+        BenchmarkChunks.delete(this.worldDir);
+    }
+
+    @Benchmark
+    public NBTTagCompound regionFile() throws IOException {
+        final int chunk = ThreadLocalRandom.current().nextInt(BenchmarkChunks.REGION_CHUNKS);
+        try (DataInputStream in = this.region.getChunkDataInputStream(chunk & 31, chunk >> 5)) {
+            return CompressedStreamTools.read(in);
+        }
+    }
+
+    @Benchmark
+    public NBTTagCompound mapped() throws IOException {
+        final int chunk = ThreadLocalRandom.current().nextInt(BenchmarkChunks.REGION_CHUNKS);
+        return MappedRegionFile.readChunk(this.worldDir, chunk & 31, chunk >> 5);
+    }
+
+}
@@ -1,31 +1,63 @@
 package net.minecraftforge.common.chunkio;
 
+import net.minecraft.util.math.ChunkPos; // Sponge
 import net.minecraft.world.World;
+import net.minecraft.world.WorldServer; // Sponge
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.storage.AnvilChunkLoader;
 import net.minecraft.world.gen.ChunkProviderServer;
-import org.spongepowered.common.SpongeImpl; // Sponge
+import co.aikar.timings.SpongeTimingsFactory; // Sponge
+import co.aikar.timings.Timing; // Sponge
+import org.spongepowered.common.world.WorldManager; // Sponge
+import org.spongepowered.server.bridge.world.chunkio.ChunkIOWorldBridge_Vanilla; // Sponge
+import org.spongepowered.server.mixin.core.world.chunk.storage.AnvilChunkLoaderAccessor_Vanilla; // Sponge
+import org.spongepowered.server.world.chunkio.ChunkIOMetrics; // Sponge
+import org.spongepowered.server.world.chunkio.ChunkIOSettings; // Sponge
+import org.spongepowered.server.world.chunkio.RegionFileHandleCache; // Sponge
 //import net.minecraftforge.fml.common.FMLLog; // Sponge
 
-import java.util.Iterator;
+import java.util.IdentityHashMap; // Sponge
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap; // Sponge
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.PriorityQueue; // Sponge
+import java.util.Queue; // Sponge
+import java.util.concurrent.ConcurrentLinkedQueue; // Sponge
+import java.util.concurrent.PriorityBlockingQueue; // Sponge
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.Consumer;
+import java.util.concurrent.atomic.LongAdder; // Sponge
 
 public class ChunkIOExecutor
 {
-    private static final int BASE_THREADS = 1;
-    private static final int PLAYERS_PER_THREAD = 50;
+    // Sponge start: Size the pool based on the queue wait time instead of the player count
+    //private static final int BASE_THREADS = 1;
+    //private static final int PLAYERS_PER_THREAD = 50;
+    private static final int ADJUST_INTERVAL = 20; // Ticks
+    private static final long TARGET_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(ChunkIOSettings.TARGET_QUEUE_WAIT_MILLIS);
+    // Measured since the last adjustment
+    private static final LongAdder waitNanos = new LongAdder();
+    private static final LongAdder waitCount = new LongAdder();
+    private static final LongAdder busyNanos = new LongAdder();
+    private static int ticksSinceAdjust;
+    private static long lastAdjust = System.nanoTime();
+    // Sponge end
 
     private static final AtomicInteger threadCounter = new AtomicInteger(); // Sponge: Add static thread counter
 
-    private static final Map<QueuedChunk, ChunkIOProvider> tasks = new ConcurrentHashMap<>(); // Sponge: Construct ConcurrentHashMap directly
-    private static final ThreadPoolExecutor pool = new ThreadPoolExecutor(BASE_THREADS, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
-            new LinkedBlockingQueue<Runnable>(),
+    // Sponge: Queued tasks are stored per world, see WorldLoadTasks
+    //private static final Map<QueuedChunk, ChunkIOProvider> tasks = new ConcurrentHashMap<QueuedChunk, ChunkIOProvider>();
+    // Sponge: Finished tasks publish themselves here so tick() doesn't need to scan all queued tasks
+    private static final Queue<ChunkIOProvider> finished = new ConcurrentLinkedQueue<>();
+    // Sponge start: Loaded tasks waiting to be finished on the main thread, closest to players first
+    private static final PriorityQueue<ChunkIOProvider.QueuedLoad> ready = new PriorityQueue<>(ChunkIOProvider.PRIORITY_ORDER);
+    private static final long FINALIZE_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(ChunkIOSettings.FINALIZE_BUDGET_MILLIS);
+    private static final Timing finalizeTimer = SpongeTimingsFactory.ofSafe("Chunk I/O - Finish Loads");
+    private static final Timing carriedOverTimer = SpongeTimingsFactory.ofSafe("Chunk I/O - Finish Loads (Carried Over)");
+    // Sponge end
+    private static final ThreadPoolExecutor pool = new ThreadPoolExecutor(ChunkIOSettings.MIN_IO_THREADS, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, // Sponge: BASE_THREADS -> MIN_IO_THREADS
+            // Sponge: Use priority queue to load chunks close to players first
+            //new LinkedBlockingQueue<Runnable>(),
+            new PriorityBlockingQueue<>(11, ChunkIOProvider.PRIORITY_ORDER),
             /*new ThreadFactory()
             {
                 private AtomicInteger count = new AtomicInteger(1);
@@ -49,13 +81,20 @@ public Thread newThread(Runnable r)
     //Load the chunk completely in this thread. Dequeue as needed...
     public static Chunk syncChunkLoad(World world, AnvilChunkLoader loader, ChunkProviderServer provider, int x, int z)
     {
-        QueuedChunk key = new QueuedChunk(x, z, world);
-        ChunkIOProvider task = tasks.remove(key); // Remove task because we will call the sync callbacks directly
+        // Sponge start: Use per-world table keyed by packed coordinates
+        //QueuedChunk key = new QueuedChunk(x, z, world);
+        ChunkIOProvider task = getLoadTasks(world).remove(ChunkPos.asLong(x, z)); // Remove task because we will call the sync callbacks directly
+        final long start = System.nanoTime();
+        // Sponge end
         if (task != null)
         {
-            if (!pool.remove(task)) // If it wasn't in the pool, and run hasn't finished, then wait for the async thread.
+            // Sponge start: Claim the task so it isn't loaded by a worker thread at the same time
+            //if (!pool.remove(task)) // If it wasn't in the pool, and run hasn't finished, then wait for the async thread.
+            if (!task.claim()) // If it was claimed by a worker thread, and run hasn't finished, then wait for the async thread.
+            // Sponge end
             {
-                synchronized(task)
+                // Sponge start: Take over the rest of the load if the worker has only read the data so far
+                /*synchronized(task)
                 {
                     while (!task.runFinished())
                     {
@@ -72,52 +111,134 @@ public static Chunk syncChunkLoad(World world, AnvilChunkLoader loader, ChunkPro
                             // Sponge end
                         }
                     }
+                }*/
+                // Already loaded and only waiting to be finished, so the main thread isn't stalled
+                if (!task.runFinished())
+                {
+                    try
+                    {
+                        task.awaitLoad();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException("Failed to wait for chunk load", e);
+                    }
+                    ChunkIOMetrics.onSyncLoad(ChunkIOMetrics.SYNC_WAIT, System.nanoTime() - start);
                 }
+                // Sponge end
             }
             else
             {
+                // Sponge: The queued entry does nothing once a worker takes it, as the task is claimed now
                 // If the task was not run yet we still need to load the chunk
-                task.run();
+                task.load(); // Sponge: run -> load
+                ChunkIOMetrics.onSyncLoad(ChunkIOMetrics.SYNC_INLINE, System.nanoTime() - start); // Sponge
             }
         }
         else
         {
-            task = new ChunkIOProvider(key, loader, provider);
-            task.run();
+            task = new ChunkIOProvider(world, x, z, loader, provider, null); // Sponge: Not queued, so don't publish completion
+            task.load(); // Sponge: run -> load
+            ChunkIOMetrics.onSyncLoad(ChunkIOMetrics.SYNC_INLINE, System.nanoTime() - start); // Sponge
         }
         task.syncCallback();
         return task.getChunk();
     }
 
     //Queue the chunk to be loaded, and call the runnable when finished
-    // Sponge: Runnable -> Consumer<Chunk>
-    public static void queueChunkLoad(World world, AnvilChunkLoader loader, ChunkProviderServer provider, int x, int z, Consumer<Chunk> runnable)
+    // Sponge: Return a handle instead of calling a runnable
+    public static ChunkLoadHandle queueChunkLoad(World world, AnvilChunkLoader loader, ChunkProviderServer provider, int x, int z)
     {
-        QueuedChunk key = new QueuedChunk(x, z, world);
+        // Sponge start: Delegate to method with priority
+        return queueChunkLoad(world, loader, provider, x, z, ChunkIOProvider.DEFAULT_PRIORITY);
+    }
+
+    /**
+     * Queues the chunk to be loaded with the given priority. Tasks with a
+     * lower priority value are loaded first, usually the squared distance
+     * in chunks to the nearest interested player.
+     *
+     * <p>If the chunk is already queued, the returned handle shares the
+     * queued load.</p>
+     */
+    public static ChunkLoadHandle queueChunkLoad(World world, AnvilChunkLoader loader, ChunkProviderServer provider, int x, int z, double priority)
+    {
+        //QueuedChunk key = new QueuedChunk(x, z, world);
+        WorldLoadTasks tasks = getLoadTasks(world);
+        long key = ChunkPos.asLong(x, z);
+        ChunkLoadHandle handle;
+        // Sponge end
         ChunkIOProvider task = tasks.get(key);
-        if (task == null)
+        // Sponge: Queue a new load if the queued one is being cancelled or finished
+        //if (task == null)
+        if (task == null || (handle = task.retain()) == null)
         {
-            task = new ChunkIOProvider(key, loader, provider);
-            task.addCallback(runnable); // Add before calling execute for thread safety
+            task = new ChunkIOProvider(world, x, z, loader, provider, finished); // Sponge: Publish completion to the finished queue
+            //task.addCallback(runnable); // Add before calling execute for thread safety // Sponge
+            handle = task.retain(); // Sponge: Can't fail before the task is published
             tasks.put(key, task);
-            pool.execute(task);
+            // Sponge start: Group loads by region file
+            RegionBatch batch = tasks.getBatch(ChunkPos.asLong(x >> 5, z >> 5));
+            task.setBatch(batch);
+            batch.add(task);
+            // Open the region file in the background while the load is waiting in the queue
+            RegionFileHandleCache.openAsync(((AnvilChunkLoaderAccessor_Vanilla) loader).accessor$getChunkSaveLocation(), x, z);
+            // Sponge end
+            //pool.execute(task);
+            pool.execute(task.requeue(priority)); // Sponge: Queue with the priority of the request
         }
         else
         {
-            task.addCallback(runnable);
+            //task.addCallback(runnable); // Sponge: Retained above
+            updatePriority(task, Math.min(task.getPriority(), priority)); // Sponge: Use priority of most urgent request
         }
+        return handle; // Sponge
     }
 
+    // Sponge start: Allow changing the priority of queued chunk loads
+    /**
+     * Changes the priority of a chunk load that is still waiting in the
+     * queue. Loads that have already started are not affected.
+     */
+    public static void updatePriority(World world, int x, int z, double priority)
+    {
+        ChunkIOProvider task = getLoadTasks(world).get(ChunkPos.asLong(x, z));
+        if (task != null)
+        {
+            updatePriority(task, priority);
+        }
+    }
+
+    private static void updatePriority(ChunkIOProvider task, double priority)
+    {
+        if (task.getPriority() == priority)
+        {
+            return;
+        }
+
+        // Queue the task again instead of removing it, the old entry is skipped once it's taken
+        ChunkIOProvider.QueuedLoad entry = task.requeue(priority);
+        if (!task.isClaimed()) // Still waiting for a worker
+        {
+            pool.execute(entry);
+        }
+        else if (task.isReady()) // Loaded, but not finished yet
+        {
+            ready.add(entry);
+        }
+    }
+    // Sponge end
+
     // Remove the chunk from the queue if it's in the list.
-    public static void dropQueuedChunkLoad(World world, int x, int z, Consumer<Chunk> runnable) // Sponge: Runnable -> Consumer<Chunk>
+    // Sponge start: Called once the last handle of a load was cancelled
+    /*public static void dropQueuedChunkLoad(World world, int x, int z, Runnable runnable)
     {
         QueuedChunk key = new QueuedChunk(x, z, world);
         ChunkIOProvider task = tasks.get(key);
         if (task == null)
         {
-            // Sponge: Use Sponge logging
-            //FMLLog.warning("Attempted to dequeue chunk that wasn't queued? %d @ (%d, %d)", world.provider.getDimension(), x, z);
-            SpongeImpl.getLogger().warn("Attempting to drop chunk that wasn't queued in {} @ ({}, {})", world, x, z);
+            FMLLog.warning("Attempted to dequeue chunk that wasn't queued? %d @ (%d, %d)", world.provider.getDimension(), x, z);
             return;
         }
 
@@ -128,16 +249,94 @@ public static void dropQueuedChunkLoad(World world, int x, int z, Consumer<Chunk
             tasks.remove(key);
             pool.remove(task);
         }
+    }*/
+    static void cancel(ChunkIOProvider task)
+    {
+        // If syncChunkLoad removed the task first, it loads the chunk anyway
+        if (getLoadTasks(task.getWorld()).remove(ChunkPos.asLong(task.getX(), task.getZ()), task))
+        {
+            task.cancel();
+            // Make sure the task isn't loaded as part of a region batch either,
+            // the queued entry does nothing once a worker takes it
+            task.claim();
+        }
     }
+    // Sponge end
 
-    public static void adjustPoolSize(int players)
+    // Sponge start
+    private static WorldLoadTasks getLoadTasks(World world)
+    {
+        return ((ChunkIOWorldBridge_Vanilla) world).vanillaBridge$getLoadTasks();
+    }
+
+    /**
+     * Counts the queued chunk loads of each world by their state.
+     */
+    public static Map<World, ChunkIOMetrics.QueueStats> getQueueStats()
+    {
+        Map<World, ChunkIOMetrics.QueueStats> stats = new IdentityHashMap<>();
+        for (WorldServer world : WorldManager.getWorlds())
+        {
+            WorldLoadTasks tasks = getLoadTasks(world);
+            if (!tasks.isEmpty())
+                stats.put(world, tasks.getStats());
+        }
+        return stats;
+    }
+    // Sponge end
+
+    // Sponge start: Adjust the pool size based on the measured queue wait time and worker utilisation
+    /*public static void adjustPoolSize(int players)
     {
         pool.setCorePoolSize(Math.max(BASE_THREADS, players / PLAYERS_PER_THREAD));
+    }*/
+
+    static void onLoadStarted(long wait)
+    {
+        waitNanos.add(wait);
+        waitCount.increment();
+        ChunkIOMetrics.QUEUE_WAIT.record(wait);
     }
 
+    static void onWorkDone(long busy)
+    {
+        busyNanos.add(busy);
+    }
+
+    public static int getPoolSize()
+    {
+        return pool.getCorePoolSize();
+    }
+
+    private static void adjustPoolSize()
+    {
+        final long now = System.nanoTime();
+        final long elapsed = now - lastAdjust;
+        lastAdjust = now;
+
+        final long count = waitCount.sumThenReset();
+        final long averageWait = count > 0 ? waitNanos.sumThenReset() / count : 0;
+        final int size = pool.getCorePoolSize();
+        // Time blocked on the disk counts as busy, more threads can still help with that
+        final double utilisation = (double) busyNanos.sumThenReset() / (elapsed * size);
+        final boolean backlog = !pool.getQueue().isEmpty();
+
+        if (size < ChunkIOSettings.MAX_IO_THREADS && backlog && utilisation > 0.75 && (averageWait > TARGET_WAIT_NANOS || count == 0))
+        {
+            pool.setCorePoolSize(size + 1);
+        }
+        else if (size > ChunkIOSettings.MIN_IO_THREADS && utilisation < 0.25 && averageWait < TARGET_WAIT_NANOS / 2)
+        {
+            // Excess threads terminate once they are idle
+            pool.setCorePoolSize(size - 1);
+        }
+    }
+    // Sponge end
+
     public static void tick()
     {
-        Iterator<ChunkIOProvider> itr = tasks.values().iterator();
+        // Sponge start: Drain finished tasks instead of iterating over all queued tasks
+        /*Iterator<ChunkIOProvider> itr = tasks.values().iterator();
         while (itr.hasNext())
         {
             ChunkIOProvider task = itr.next();
@@ -148,6 +347,65 @@ public static void tick()
 
                 itr.remove();
             }
+        }*/
+        if (++ticksSinceAdjust >= ADJUST_INTERVAL)
+        {
+            ticksSinceAdjust = 0;
+            adjustPoolSize();
+        }
+
+        ChunkIOProvider task;
+        while ((task = finished.poll()) != null)
+        {
+            task.setReady();
+            ready.add(task.entry());
+        }
+
+        if (ready.isEmpty())
+        {
+            return;
+        }
+
+        finalizeTimer.startTiming();
+        final long start = System.nanoTime();
+        ChunkIOProvider.QueuedLoad entry;
+        while ((entry = ready.poll()) != null)
+        {
+            if (entry.isStale()) // Queued again with a different priority
+            {
+                continue;
+            }
+
+            task = entry.task;
+            // The task may have been completed by syncChunkLoad or dropped in the meantime
+            if (getLoadTasks(task.getWorld()).remove(ChunkPos.asLong(task.getX(), task.getZ()), task))
+            {
+                if (task.hasCallback())
+                {
+                    if (task.isCarriedOver())
+                    {
+                        carriedOverTimer.startTiming();
+                        task.syncCallback();
+                        carriedOverTimer.stopTiming();
+                    }
+                    else
+                    {
+                        task.syncCallback();
+                    }
+                }
+            }
+
+            if (FINALIZE_BUDGET_NANOS > 0 && System.nanoTime() - start >= FINALIZE_BUDGET_NANOS)
+            {
+                // Out of time, finish the remaining tasks in the next ticks
+                for (ChunkIOProvider.QueuedLoad remaining : ready)
+                {
+                    remaining.task.setCarriedOver();
+                }
+                break;
+            }
         }
+        finalizeTimer.stopTiming();
+        // Sponge end
     }
 }
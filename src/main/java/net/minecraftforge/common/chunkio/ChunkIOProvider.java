@@ -1,5 +1,6 @@
 package net.minecraftforge.common.chunkio;
 
+import net.minecraft.world.World; // Sponge
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.storage.AnvilChunkLoader;
 import net.minecraft.world.gen.ChunkProviderServer;
@@ -9,61 +10,290 @@
 import org.spongepowered.server.mixin.chunkio.ChunkProviderServerAccessor_Vanilla;
 import org.spongepowered.server.mixin.core.world.chunk.storage.AnvilChunkLoaderAccessor_Vanilla;
 import org.spongepowered.server.world.chunkio.AsyncAnvilChunkLoader; // Sponge
+import org.spongepowered.server.world.chunkio.ChunkGenerationExecutor; // Sponge
+import org.spongepowered.server.world.chunkio.ChunkIOMetrics; // Sponge
+import org.spongepowered.server.world.chunkio.PreparedChunkLoad; // Sponge
 //import net.minecraftforge.common.MinecraftForge; // Sponge
 //import net.minecraftforge.event.world.ChunkDataEvent; // Sponge
 
 import java.io.IOException;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.function.Consumer;
+import java.util.ArrayList; // Sponge
+import java.util.Comparator; // Sponge
+import java.util.List; // Sponge
+import java.util.Queue; // Sponge
+//import java.util.concurrent.ConcurrentLinkedQueue; // Sponge
+import java.util.concurrent.atomic.AtomicBoolean; // Sponge
+import java.util.concurrent.atomic.AtomicLong; // Sponge
+import java.util.concurrent.locks.ReentrantLock; // Sponge
+
+import javax.annotation.Nullable; // Sponge
 
 class ChunkIOProvider implements Runnable
 {
-    private final QueuedChunk chunkInfo;
+    // Sponge start: Order chunk loads by priority, then by submission order
+    static final double DEFAULT_PRIORITY = Double.MAX_VALUE; // Loads without any interested player are loaded last
+    static final Comparator<Runnable> PRIORITY_ORDER = Comparator
+            .comparingDouble((Runnable r) -> ((QueuedLoad) r).priority)
+            .thenComparingLong(r -> ((QueuedLoad) r).task.sequence);
+    private static final AtomicLong sequenceCounter = new AtomicLong();
+    // Sponge end
+
+    // Sponge start: QueuedChunk -> world and coordinates
+    //private final QueuedChunk chunkInfo;
+    private final World world;
+    private final int x;
+    private final int z;
+    // Sponge end
     private final AnvilChunkLoader loader;
     private final ChunkProviderServer provider;
+    @Nullable private final Queue<ChunkIOProvider> completed; // Sponge: Queue to publish to once the async part finished
 
     private Chunk chunk;
     private NBTTagCompound nbt;
-    private final ConcurrentLinkedQueue<Consumer<Chunk>> callbacks = new ConcurrentLinkedQueue<>(); // Sponge: Runnable -> Consumer<Chunk>
-    private boolean ran = false;
+    private PreparedChunkLoad prepared; // Sponge
+    private boolean ready; // Sponge: Waiting to be finished on the main thread, only accessed on the main thread
+    private boolean carriedOver; // Sponge: Finishing was deferred to a later tick, only accessed on the main thread
+    // Sponge start: Reference counted load handles instead of callbacks, guarded by this
+    //private ConcurrentLinkedQueue<Runnable> callbacks = new ConcurrentLinkedQueue<Runnable>();
+    private final List<ChunkLoadHandle> handles = new ArrayList<>(1);
+    private int refs;
+    private boolean released; // The last handle was cancelled
+    private boolean finishing; // The handles are being completed
+    private volatile boolean cancelled;
+    // Sponge end
+    private volatile boolean ran = false; // Sponge: Make volatile for the queue stats
+    // Sponge start: Hand off the read data to the main thread, guarded by this
+    private boolean handOffRequested;
+    private boolean handedOff;
+    // Sponge end
+    // Sponge start
+    private final long sequence = sequenceCounter.getAndIncrement();
+    private volatile double priority = DEFAULT_PRIORITY;
+    private volatile int generation; // Incremented when the priority changes, only written on the main thread
+    private final AtomicBoolean claimed = new AtomicBoolean();
+    private final long created = System.nanoTime();
+    @Nullable private RegionBatch batch;
+    // Sponge end
 
-    ChunkIOProvider(QueuedChunk chunk, AnvilChunkLoader loader, ChunkProviderServer provider)
+    ChunkIOProvider(World world, int x, int z, AnvilChunkLoader loader, ChunkProviderServer provider, @Nullable Queue<ChunkIOProvider> completed) // Sponge: Add completed
     {
-        this.chunkInfo = chunk;
+        // Sponge start
+        //this.chunkInfo = chunk;
+        this.world = world;
+        this.x = x;
+        this.z = z;
+        // Sponge end
         this.loader = loader;
         this.provider = provider;
+        this.completed = completed; // Sponge
+    }
+
+    // Sponge start
+    World getWorld()
+    {
+        return this.world;
+    }
+
+    int getX()
+    {
+        return this.x;
+    }
+
+    int getZ()
+    {
+        return this.z;
+    }
+
+    AnvilChunkLoader getLoader()
+    {
+        return this.loader;
+    }
+
+    double getPriority()
+    {
+        return this.priority;
+    }
+
+    /**
+     * Changes the priority of this task. Must be called on the main thread.
+     * Entries that were queued before are skipped once they are taken from
+     * their queue, so the task must be queued again with the returned entry.
+     *
+     * @param priority The new priority
+     * @return The entry to queue
+     */
+    QueuedLoad requeue(double priority)
+    {
+        this.priority = priority;
+        this.generation++;
+        return this.entry();
+    }
+
+    QueuedLoad entry()
+    {
+        return new QueuedLoad(this, this.priority, this.generation);
+    }
+
+    // Must be set before the task is added to the executor queue
+    void setBatch(RegionBatch batch)
+    {
+        this.batch = batch;
+    }
+
+    /**
+     * Claims this task for loading. Only the thread that successfully
+     * claimed the task is allowed to call {@link #load()}.
+     *
+     * @return True if the task was claimed, false if it was claimed before
+     */
+    boolean claim()
+    {
+        return this.claimed.compareAndSet(false, true);
+    }
+
+    boolean isClaimed()
+    {
+        return this.claimed.get();
+    }
+    // Sponge end
+
+    // Sponge start
+    boolean isReady()
+    {
+        return this.ready;
     }
 
-    public void addCallback(Consumer<Chunk> callback) // Sponge: Runnable -> Consumer<Chunk>
+    void setReady()
+    {
+        this.ready = true;
+    }
+
+    boolean isCarriedOver()
+    {
+        return this.carriedOver;
+    }
+
+    void setCarriedOver()
+    {
+        this.carriedOver = true;
+    }
+    // Sponge end
+
+    // Sponge start: Replace callbacks with load handles
+    /*public void addCallback(Runnable callback)
     {
         this.callbacks.add(callback);
     }
-    public void removeCallback(Consumer<Chunk> callback) // Sponge: Runnable -> Consumer<Chunk>
+    public void removeCallback(Runnable callback)
     {
         this.callbacks.remove(callback);
+    }*/
+
+    /**
+     * Creates a new handle that shares this load.
+     *
+     * @return The handle, or null if the load was cancelled or is already
+     *     being finished and a new load is needed
+     */
+    @Nullable
+    synchronized ChunkLoadHandle retain()
+    {
+        if (this.released || this.finishing)
+        {
+            return null;
+        }
+
+        ChunkLoadHandle handle = new ChunkLoadHandle(this);
+        this.handles.add(handle);
+        this.refs++;
+        return handle;
+    }
+
+    /**
+     * Releases the reference of a cancelled handle.
+     *
+     * @return True if this was the last reference and the load should be
+     *     cancelled
+     */
+    synchronized boolean release()
+    {
+        if (--this.refs > 0 || this.finishing)
+        {
+            return false;
+        }
+
+        this.released = true;
+        return true;
     }
 
+    /**
+     * Cancels the load. Must only be called by the thread that removed this
+     * task from the queued tasks, so it can't race with syncChunkLoad.
+     */
+    void cancel()
+    {
+        this.cancelled = true;
+    }
+    // Sponge end
+
     @Override
     public void run() // async stuff
     {
-        synchronized(this)
+        // Sponge start: Load the chunk together with the other queued chunks of the region
+        // Show the world in the thread name, e.g. in thread dumps
+        final Thread thread = Thread.currentThread();
+        final String name = thread.getName();
+        thread.setName(name + " (" + ((org.spongepowered.api.world.World) this.world).getName() + ")");
+        final long start = System.nanoTime();
+        try
         {
+            if (this.batch != null)
+            {
+                this.batch.drain();
+            }
+            else if (this.claim())
+            {
+                this.loadQueued();
+            }
+        }
+        finally
+        {
+            ChunkIOExecutor.onWorkDone(System.nanoTime() - start);
+            thread.setName(name);
+        }
+    }
+
+    // Called by the chunk I/O threads
+    void loadQueued()
+    {
+        ChunkIOExecutor.onLoadStarted(System.nanoTime() - this.created);
+        this.load();
+    }
+
+    void load()
+    {
+        // Sponge start: Read outside of the lock, so the main thread can take over the rest of the load
+        //synchronized(this)
+        //{
             //Object[] data = null; // Sponge
+            // Sponge start: Don't read the chunk if the load was cancelled in the meantime
+            if (this.cancelled)
+            {
+                return;
+            }
+            // Sponge end
+            NBTTagCompound nbt = null;
             try
             {
-                // Sponge start: Use Sponge's async chunk load method
+                // Sponge: Use Sponge's async chunk load method
                 //data = this.loader.loadChunk__Async(chunkInfo.world, chunkInfo.x, chunkInfo.z);
-                this.nbt = AsyncAnvilChunkLoader.read(this.loader, this.chunkInfo.x, this.chunkInfo.z);
-                if (this.nbt != null) {
-                    this.chunk = ((AnvilChunkLoaderAccessor_Vanilla) this.loader).accessor$checkedReadChunkFromNBT(this.chunkInfo.world, this.chunkInfo.x, this.chunkInfo.z, this.nbt);
-                }
-                // Sponge end
+                nbt = AsyncAnvilChunkLoader.read(this.loader, this.x, this.z);
             }
             catch (IOException e)
             {
                 // Sponge: Use Sponge logging
                 //e.printStackTrace();
-                SpongeImpl.getLogger().error("Could not load chunk in {} @ ({}, {})", this.chunkInfo.world, this.chunkInfo.x, this.chunkInfo.z, e);
+                SpongeImpl.getLogger().error("Could not load chunk in {} @ ({}, {})", this.world, this.x, this.z, e);
             }
 
             // Sponge start: data is not used
@@ -74,10 +304,82 @@ public void run() // async stuff
             }*/
             // Sponge end
 
+            synchronized (this)
+            {
+                if (this.cancelled)
+                {
+                    // Nobody is interested in the chunk anymore, discard the data
+                    return;
+                }
+
+                this.nbt = nbt;
+                if (this.handOffRequested)
+                {
+                    // The main thread is waiting for this chunk, let it deserialize the chunk itself
+                    this.handedOff = true;
+                    this.notifyAll();
+                    return;
+                }
+            }
+
+            this.deserialize();
+
+            synchronized (this)
+            {
+                this.ran = true;
+                this.notifyAll();
+            }
+        //}
+
+        // Let the main thread know that this task is ready to be finished
+        if (this.completed != null)
+        {
+            this.completed.add(this);
+        }
+    }
+
+    private void deserialize()
+    {
+        if (this.nbt != null)
+        {
+            final long start = System.nanoTime();
+            this.chunk = ((AnvilChunkLoaderAccessor_Vanilla) this.loader).accessor$checkedReadChunkFromNBT(this.world, this.x, this.z, this.nbt);
+            if (this.chunk != null)
+            {
+                this.prepared = AsyncAnvilChunkLoader.prepareLoad(this.nbt); // Decode as much as possible before the main thread
+            }
+            ChunkIOMetrics.DESERIALIZE.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Waits until the worker thread that claimed this task has loaded the
+     * chunk. If the worker has only read the chunk data so far, it hands the
+     * data over and the remaining work is done on the calling thread instead.
+     */
+    void awaitLoad() throws InterruptedException
+    {
+        synchronized (this)
+        {
+            this.handOffRequested = true;
+            while (!this.ran && !this.handedOff)
+            {
+                this.wait();
+            }
+
+            if (this.ran)
+            {
+                return;
+            }
+        }
+
+        this.deserialize();
+        synchronized (this)
+        {
             this.ran = true;
-            this.notifyAll();
         }
     }
+    // Sponge end
 
     // sync stuff
     public void syncCallback()
@@ -85,27 +387,54 @@ public void syncCallback()
         if (this.chunk == null)
         {
             this.runCallbacks();
+            this.recordLatency(); // Sponge
             return;
         }
 
+        final long start = System.nanoTime(); // Sponge
+
         // Load Entities
         // Sponge: Use Sponge's loadEntities method
-        //this.loader.loadEntities(this.chunkInfo.world, this.nbt.getCompoundTag("Level"), this.chunk);
-        AsyncAnvilChunkLoader.loadEntities(this.chunkInfo.world, this.chunk, this.nbt);
+        //this.loader.loadEntities(this.world, this.nbt.getCompoundTag("Level"), this.chunk);
+        AsyncAnvilChunkLoader.loadEntities(this.world, this.chunk, this.prepared);
 
         // Sponge: Don't call Forge event
         //MinecraftForge.EVENT_BUS.post(new ChunkDataEvent.Load(this.chunk, this.nbt)); // Don't call ChunkDataEvent.Load async
 
         final ChunkProviderServerAccessor_Vanilla accessor = (ChunkProviderServerAccessor_Vanilla) this.provider;
         this.chunk.setLastSaveTime(accessor.chunkIOAccessor$getWorld().getTotalWorldTime());
-        accessor.chunkIOAccessor$getChunkGenerator().recreateStructures(this.chunk, this.chunkInfo.x, this.chunkInfo.z);
+        // Sponge start: The chunk generator may be in use by the generation thread
+        final ReentrantLock generatorLock = ChunkGenerationExecutor.getGeneratorLock(this.provider);
+        generatorLock.lock();
+        try
+        {
+            accessor.chunkIOAccessor$getChunkGenerator().recreateStructures(this.chunk, this.x, this.z);
+        }
+        finally
+        {
+            generatorLock.unlock();
+        }
+        // Sponge end
 
-        accessor.chunkIOAccessor$getLoadedChunks().put(ChunkPos.asLong(this.chunkInfo.x, this.chunkInfo.z), this.chunk);
+        accessor.chunkIOAccessor$getLoadedChunks().put(ChunkPos.asLong(this.x, this.z), this.chunk);
         this.chunk.onLoad();
         this.chunk.populate(this.provider, accessor.chunkIOAccessor$getChunkGenerator());
 
+        ChunkIOMetrics.FINALIZE.record(System.nanoTime() - start); // Sponge
+
         this.runCallbacks();
+        this.recordLatency(); // Sponge
+    }
+
+    // Sponge start
+    private void recordLatency()
+    {
+        if (this.completed != null) // Only for queued loads
+        {
+            ChunkIOMetrics.LATENCY.record(System.nanoTime() - this.created);
+        }
     }
+    // Sponge end
 
     public Chunk getChunk()
     {
@@ -117,20 +446,67 @@ public boolean runFinished()
         return this.ran;
     }
 
-    public boolean hasCallback()
+    public synchronized boolean hasCallback() // Sponge: Add synchronized
     {
-        return this.callbacks.size() > 0;
+        //return this.callbacks.size() > 0; // Sponge
+        return this.refs > 0;
     }
 
     public void runCallbacks()
     {
-        for (Consumer<Chunk> r : this.callbacks) // Sponge: Runnable -> Consumer<Chunk>
+        // Sponge start: Complete the handles, cancelled handles ignore the chunk
+        /*for (Runnable r : this.callbacks)
+        {
+            r.run();
+        }
+
+        this.callbacks.clear();*/
+        synchronized (this)
+        {
+            this.finishing = true; // No new handles can be added from now on
+        }
+
+        for (ChunkLoadHandle handle : this.handles)
+        {
+            handle.complete(this.chunk);
+        }
+        // Sponge end
+    }
+
+    // Sponge start
+    /**
+     * An entry of this task in a priority queue, with the priority at the
+     * time it was queued. Priority queues don't support changing the
+     * priority of their elements, and removing them takes linear time, so
+     * a new entry is queued instead and the old one is skipped once it's
+     * taken from the queue.
+     */
+    static final class QueuedLoad implements Runnable
+    {
+        final ChunkIOProvider task;
+        private final double priority;
+        private final int generation;
+
+        QueuedLoad(ChunkIOProvider task, double priority, int generation)
+        {
+            this.task = task;
+            this.priority = priority;
+            this.generation = generation;
+        }
+
+        boolean isStale()
         {
-            // Sponge: Pass chunk argument
-            //r.run();
-            r.accept(this.chunk);
+            return this.generation != this.task.generation;
         }
 
-        this.callbacks.clear();
+        @Override
+        public void run()
+        {
+            if (!this.isStale())
+            {
+                this.task.run();
+            }
+        }
     }
+    // Sponge end
 }
@@ -0,0 +1,54 @@
+package net.minecraftforge.common.chunkio;
+
+import net.minecraft.world.chunk.Chunk;
+
+import java.util.concurrent.CompletableFuture;
+
+import javax.annotation.Nullable;
+
+/**
+ * Sponge: A request for a chunk load queued in the {@link ChunkIOExecutor}.
+ * The handle is completed on the main thread with the loaded chunk, or with
+ * null if the chunk doesn't exist or couldn't be read. Dependent actions that
+ * aren't async therefore also run on the main thread.
+ *
+ * <p>All requests for the same chunk share a single load, which holds one
+ * reference for each handle. Cancelling a handle releases its reference.
+ * Once the last reference is released the load is removed from the queue,
+ * or if a worker thread has already started reading the chunk, the read
+ * data is discarded without deserializing it.</p>
+ */
+public final class ChunkLoadHandle extends CompletableFuture<Chunk>
+{
+    @Nullable private final ChunkIOProvider task;
+
+    ChunkLoadHandle(@Nullable ChunkIOProvider task)
+    {
+        this.task = task;
+    }
+
+    /**
+     * Creates a handle for a chunk that is already loaded.
+     */
+    public static ChunkLoadHandle completed(@Nullable Chunk chunk)
+    {
+        ChunkLoadHandle handle = new ChunkLoadHandle(null);
+        handle.complete(chunk);
+        return handle;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning)
+    {
+        if (!super.cancel(mayInterruptIfRunning))
+        {
+            return false;
+        }
+
+        if (this.task != null && this.task.release())
+        {
+            ChunkIOExecutor.cancel(this.task);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,99 @@
+package net.minecraftforge.common.chunkio;
+
+import org.spongepowered.server.world.chunkio.AsyncAnvilChunkLoader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Sponge: Groups queued chunk loads of a single region file. Only one worker
+ * thread owns a region at a time and loads all queued chunks of it in the
+ * order they are stored in the region file. This avoids contention on the
+ * synchronized region file and turns random reads into a sequential pass.
+ */
+class RegionBatch
+{
+    private final WorldLoadTasks tasks;
+    private final long region;
+    private final Queue<ChunkIOProvider> pending = new ConcurrentLinkedQueue<>();
+    private final Lock owner = new ReentrantLock();
+
+    RegionBatch(WorldLoadTasks tasks, long region)
+    {
+        this.tasks = tasks;
+        this.region = region;
+    }
+
+    void add(ChunkIOProvider task)
+    {
+        this.pending.add(task);
+    }
+
+    void drain()
+    {
+        do
+        {
+            // If another worker owns this region it will also load our task
+            if (!this.owner.tryLock())
+            {
+                return;
+            }
+
+            try
+            {
+                List<ChunkIOProvider> batch = new ArrayList<>();
+                ChunkIOProvider task;
+                while ((task = this.pending.poll()) != null)
+                {
+                    batch.add(task);
+                }
+
+                if (batch.size() > 1)
+                {
+                    // Sort by the position in the storage, packed together with the index in the batch
+                    long[] order = new long[batch.size()];
+                    for (int i = 0; i < order.length; i++)
+                    {
+                        ChunkIOProvider chunk = batch.get(i);
+                        order[i] = ((long) AsyncAnvilChunkLoader.getLocality(chunk.getLoader(), chunk.getX(), chunk.getZ()) << 32) | i;
+                    }
+                    Arrays.sort(order);
+
+                    for (long entry : order)
+                    {
+                        load(batch.get((int) entry));
+                    }
+                }
+                else if (!batch.isEmpty())
+                {
+                    load(batch.get(0));
+                }
+            }
+            finally
+            {
+                this.owner.unlock();
+            }
+        }
+        // Tasks added after we have polled the queue for the last time might
+        // have failed to acquire the region, so check again after releasing it
+        while (!this.pending.isEmpty());
+
+        this.tasks.removeBatch(this.region, this);
+    }
+
+    // Claim each task only right before loading it, so the main thread can
+    // still take over tasks that are further back in the batch
+    private static void load(ChunkIOProvider task)
+    {
+        if (task.claim()) // Skip tasks that were dropped or loaded synchronously
+        {
+            task.loadQueued();
+        }
+    }
+
+}
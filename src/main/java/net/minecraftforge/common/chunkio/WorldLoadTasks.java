@@ -0,0 +1,100 @@
+package net.minecraftforge.common.chunkio;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.world.World;
+import org.spongepowered.server.world.chunkio.ChunkIOMetrics;
+
+/**
+ * Sponge: The queued chunk loads of a single world, keyed by the packed
+ * chunk coordinates from {@link net.minecraft.util.math.ChunkPos#asLong(int, int)}.
+ * Replaces the global map keyed by {@code QueuedChunk}, so queueing,
+ * dropping and loading a chunk doesn't allocate a key and worlds don't
+ * contend with each other.
+ *
+ * <p>Each world holds one instance, see
+ * {@link org.spongepowered.server.bridge.world.chunkio.ChunkIOWorldBridge_Vanilla}.
+ * Chunk loads may be queued from any thread, so all access is guarded by
+ * this object. The lock is almost always uncontended.</p>
+ */
+public final class WorldLoadTasks
+{
+    private final World world;
+    private final Long2ObjectMap<ChunkIOProvider> tasks = new Long2ObjectOpenHashMap<>();
+    // Queued loads grouped by region file, keyed by the packed region coordinates
+    private final Long2ObjectMap<RegionBatch> regions = new Long2ObjectOpenHashMap<>();
+
+    public WorldLoadTasks(World world)
+    {
+        this.world = world;
+    }
+
+    World getWorld()
+    {
+        return this.world;
+    }
+
+    synchronized ChunkIOProvider get(long key)
+    {
+        return this.tasks.get(key);
+    }
+
+    synchronized void put(long key, ChunkIOProvider task)
+    {
+        this.tasks.put(key, task);
+    }
+
+    synchronized ChunkIOProvider remove(long key)
+    {
+        return this.tasks.remove(key);
+    }
+
+    synchronized boolean remove(long key, ChunkIOProvider task)
+    {
+        if (this.tasks.get(key) == task)
+        {
+            this.tasks.remove(key);
+            return true;
+        }
+        return false;
+    }
+
+    synchronized RegionBatch getBatch(long region)
+    {
+        RegionBatch batch = this.regions.get(region);
+        if (batch == null)
+        {
+            batch = new RegionBatch(this, region);
+            this.regions.put(region, batch);
+        }
+        return batch;
+    }
+
+    synchronized void removeBatch(long region, RegionBatch batch)
+    {
+        if (this.regions.get(region) == batch)
+        {
+            this.regions.remove(region);
+        }
+    }
+
+    synchronized ChunkIOMetrics.QueueStats getStats()
+    {
+        ChunkIOMetrics.QueueStats stats = new ChunkIOMetrics.QueueStats(this.world);
+        for (ChunkIOProvider task : this.tasks.values())
+        {
+            if (task.runFinished())
+                stats.increment(ChunkIOMetrics.LoadState.FINISHING);
+            else if (task.isClaimed())
+                stats.increment(ChunkIOMetrics.LoadState.LOADING);
+            else
+                stats.increment(ChunkIOMetrics.LoadState.QUEUED);
+        }
+        return stats;
+    }
+
+    synchronized boolean isEmpty()
+    {
+        return this.tasks.isEmpty();
+    }
+}
@@ -27,7 +27,9 @@
 import static com.google.common.base.Preconditions.checkState;
 import static net.minecraft.server.MinecraftServer.USER_CACHE_FILE;
 import static org.spongepowered.server.launch.VanillaCommandLine.BONUS_CHEST;
+import static org.spongepowered.server.launch.VanillaCommandLine.CONVERT_STORAGE;
 import static org.spongepowered.server.launch.VanillaCommandLine.PORT;
+import static org.spongepowered.server.launch.VanillaCommandLine.UPGRADE_WORLD;
 import static org.spongepowered.server.launch.VanillaCommandLine.WORLD_DIR;
 import static org.spongepowered.server.launch.VanillaCommandLine.WORLD_NAME;
 import static org.spongepowered.server.launch.VanillaLaunch.Environment.DEVELOPMENT;
@@ -80,6 +82,9 @@
 import org.spongepowered.server.plugin.MinecraftPluginContainer;
 import org.spongepowered.server.plugin.SpongeCommonContainer;
 import org.spongepowered.server.plugin.VanillaPluginManager;
+import org.spongepowered.server.world.chunkio.ChunkIOCommand;
+import org.spongepowered.server.world.chunkio.ChunkStorageConverter;
+import org.spongepowered.server.world.chunkio.WorldUpgrader;
 
 import java.io.File;
 import java.io.IOException;
@@ -116,6 +121,7 @@ public void preInitialize() throws Exception {
         this.game.getEventManager().registerListeners(this, SpongeInternalListeners.getInstance());
         SpongeBootstrap.initializeServices();
         SpongeBootstrap.initializeCommands();
+        this.game.getCommandManager().register(this, ChunkIOCommand.create(), "chunkio");
         for (EntityTypeRegistryModule.FutureRegistration registration : EntityTypeRegistryModule.getInstance().getCustomEntities()) {
             try {
                 // Workaround until we can have static mixin accessors.
@@ -195,7 +201,7 @@ public Optional<?> getInstance() {
     }
 
     @SuppressWarnings("ConstantConditions")
-    private static void start(String[] args) {
+    private static void start(String[] args) throws IOException {
         // Attempt to load metadata
         MetadataContainer metadata = MetadataContainer.load();
 
@@ -212,6 +218,18 @@ private static void start(String[] args) {
 
         File worldDir = options.has(WORLD_DIR) ? options.valueOf(WORLD_DIR) : new File(".");
 
+        if (options.has(UPGRADE_WORLD)) {
+            String levelName = options.has(WORLD_NAME) ? options.valueOf(WORLD_NAME) : WorldUpgrader.getLevelName();
+            WorldUpgrader.upgrade(new File(worldDir, levelName), DataFixesManager.createFixer());
+            return;
+        }
+
+        if (options.has(CONVERT_STORAGE)) {
+            String levelName = options.has(WORLD_NAME) ? options.valueOf(WORLD_NAME) : WorldUpgrader.getLevelName();
+            ChunkStorageConverter.convert(new File(worldDir, levelName), ChunkStorageConverter.parseFormat(options.valueOf(CONVERT_STORAGE)));
+            return;
+        }
+
         YggdrasilAuthenticationService authenticationService = new YggdrasilAuthenticationService(Proxy.NO_PROXY, UUID.randomUUID().toString());
         MinecraftSessionService sessionService = authenticationService.createMinecraftSessionService();
         GameProfileRepository profileRepository = authenticationService.createProfileRepository();
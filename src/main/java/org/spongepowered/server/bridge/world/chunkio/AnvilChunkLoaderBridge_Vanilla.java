@@ -0,0 +1,64 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.bridge.world.chunkio;
+
+import org.spongepowered.server.world.chunkio.ChunkPrefetchCache;
+import org.spongepowered.server.world.chunkio.ChunkSaveQueue;
+import org.spongepowered.server.world.chunkio.ChunkStorage;
+import org.spongepowered.server.world.chunkio.WarmChunkCache;
+
+public interface AnvilChunkLoaderBridge_Vanilla {
+
+    /**
+     * Returns the queue of chunks waiting to be written, which replaces
+     * the vanilla {@code chunksToSave} map.
+     *
+     * @return The save queue
+     */
+    ChunkSaveQueue vanillaBridge$getSaveQueue();
+
+    /**
+     * Returns the chunks of this loader that were read ahead of time.
+     *
+     * @return The prefetch cache
+     */
+    ChunkPrefetchCache vanillaBridge$getPrefetchCache();
+
+    /**
+     * Returns the recently unloaded chunks of this loader.
+     *
+     * @return The warm cache
+     */
+    WarmChunkCache vanillaBridge$getWarmCache();
+
+    /**
+     * Returns the storage the chunks of this loader are read from and
+     * written to.
+     *
+     * @return The chunk storage
+     */
+    ChunkStorage vanillaBridge$getStorage();
+
+}
@@ -25,11 +25,43 @@
 package org.spongepowered.server.bridge.world.chunkio;
 
 import net.minecraft.world.chunk.Chunk;
+import net.minecraftforge.common.chunkio.ChunkLoadHandle;
 
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 
 public interface ChunkIOProviderBridge_Vanilla {
 
-    Chunk vanillaBridge$loadChunk(int x, int z, Consumer<Chunk> callback);
+    /**
+     * Loads the chunk on a separate thread if it is not loaded yet. The
+     * handle is always completed on the main thread, with null if the chunk
+     * doesn't exist. Cancelling the handle stops the load once no other
+     * request is waiting for the same chunk.
+     *
+     * @param x The x coordinate of the chunk
+     * @param z The z coordinate of the chunk
+     * @return The load handle, already completed if the chunk is loaded
+     */
+    ChunkLoadHandle vanillaBridge$loadChunk(int x, int z);
+
+    /**
+     * Generates the chunk on a separate thread if it is not loaded yet. The
+     * callback is always called on the main thread.
+     *
+     * @param x The x coordinate of the chunk
+     * @param z The z coordinate of the chunk
+     * @param callback The callback to call with the chunk, or null if the
+     *     generation failed
+     */
+    void vanillaBridge$generateChunk(int x, int z, Consumer<Chunk> callback);
+
+    /**
+     * Returns the lock that guards the chunk generator of the world and its
+     * structure generators, see
+     * {@link org.spongepowered.server.world.chunkio.ChunkGenerationExecutor}.
+     *
+     * @return The generator lock
+     */
+    ReentrantLock vanillaBridge$getGeneratorLock();
 
 }
@@ -75,6 +75,12 @@ private VanillaCommandLine() {
             .withRequiredArg();
     public static final OptionSpec<Void> BONUS_CHEST = parser.accepts("bonusChest", "Spawn a bonus chest in the generated world");
 
+    // World maintenance
+    public static final OptionSpec<Void> UPGRADE_WORLD = parser.accepts("upgrade-world",
+            "Upgrade all chunks of the main world to the current version and exit");
+    public static final OptionSpec<String> CONVERT_STORAGE = parser.accepts("convert-storage",
+            "Convert all chunks of the main world to another storage format (anvil or log) and exit").withRequiredArg();
+
     private static Optional<OptionSet> options = Optional.empty();
 
     static {
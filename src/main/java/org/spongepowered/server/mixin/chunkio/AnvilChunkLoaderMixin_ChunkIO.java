@@ -26,6 +26,7 @@
 
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.nbt.NBTTagList;
+import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.World;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.storage.AnvilChunkLoader;
@@ -33,17 +34,35 @@
 import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Overwrite;
+import org.spongepowered.asm.mixin.Shadow;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.Surrogate;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 import org.spongepowered.asm.mixin.injection.callback.LocalCapture;
+import org.spongepowered.server.bridge.world.chunkio.AnvilChunkLoaderBridge_Vanilla;
+import org.spongepowered.server.world.chunkio.AsyncWorldUnloader;
+import org.spongepowered.server.world.chunkio.ChunkPrefetchCache;
+import org.spongepowered.server.world.chunkio.ChunkSaveQueue;
+import org.spongepowered.server.world.chunkio.ChunkStorage;
+import org.spongepowered.server.world.chunkio.WarmChunkCache;
 
 import javax.annotation.Nullable;
+import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 
 @Mixin(AnvilChunkLoader.class)
-public abstract class AnvilChunkLoaderMixin_ChunkIO {
+public abstract class AnvilChunkLoaderMixin_ChunkIO implements AnvilChunkLoaderBridge_Vanilla {
+
+    @Shadow @Final private File chunkSaveLocation;
+
+    private ChunkStorage chunkIO$storage;
+    private ChunkSaveQueue chunkIO$saveQueue;
+    private final ChunkPrefetchCache chunkIO$prefetchCache = new ChunkPrefetchCache();
+    private final WarmChunkCache chunkIO$warmCache = new WarmChunkCache();
+    private boolean chunkIO$unloading; // Whether the chunk that is saved right now is being unloaded
 
     /**
      * @author Minecrell - May 28th, 2016
@@ -71,4 +90,81 @@ public Chunk loadChunk(World worldIn, int x, int z) throws IOException {
         cir.setReturnValue(chunk);
     }
 
+    @Inject(method = "<init>", at = @At("RETURN"))
+    private void chunkIO$onInit(CallbackInfo ci) {
+        try {
+            this.chunkIO$storage = ChunkStorage.open(this.chunkSaveLocation);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open chunk storage in " + this.chunkSaveLocation, e);
+        }
+        this.chunkIO$saveQueue = new ChunkSaveQueue(this.chunkSaveLocation, this.chunkIO$storage, this.chunkIO$warmCache);
+    }
+
+    @Inject(method = "saveChunk", at = @At("HEAD"))
+    private void chunkIO$onSaveChunk(World world, Chunk chunk, CallbackInfo ci) {
+        // Chunks are marked as unloaded before they are saved for the last time
+        this.chunkIO$unloading = !chunk.isLoaded();
+    }
+
+    @Inject(method = "saveChunk", at = @At("RETURN"))
+    private void chunkIO$afterSaveChunk(World world, Chunk chunk, CallbackInfo ci) {
+        this.chunkIO$unloading = false;
+    }
+
+    @Inject(method = "addChunkToPending", at = @At("HEAD"), cancellable = true)
+    private void chunkIO$queueChunkSave(ChunkPos pos, NBTTagCompound compound, CallbackInfo ci) {
+        // Chunks are written by the ChunkSaveExecutor instead of the vanilla file I/O thread
+        this.chunkIO$prefetchCache.invalidate(pos.x, pos.z);
+        this.chunkIO$warmCache.invalidate(pos.x, pos.z);
+        this.chunkIO$saveQueue.add(pos, compound, this.chunkIO$unloading);
+        ci.cancel();
+    }
+
+    @Inject(method = "writeNextIO", at = @At("HEAD"), cancellable = true)
+    private void chunkIO$writeNextRegion(CallbackInfoReturnable<Boolean> cir) {
+        cir.setReturnValue(this.chunkIO$saveQueue.writeNext());
+    }
+
+    @Inject(method = "isChunkGeneratedAt", at = @At("HEAD"), cancellable = true)
+    private void chunkIO$isChunkGenerated(int x, int z, CallbackInfoReturnable<Boolean> cir) {
+        cir.setReturnValue(this.chunkIO$saveQueue.contains(x, z) || this.chunkIO$storage.exists(x, z));
+    }
+
+    @Inject(method = "flush", at = @At("HEAD"), cancellable = true)
+    private void chunkIO$skipFlush(CallbackInfo ci) {
+        if (AsyncWorldUnloader.isDetaching()) {
+            // Flushed by the AsyncWorldUnloader
+            ci.cancel();
+        }
+    }
+
+    @Inject(method = "flush", at = @At("RETURN"))
+    private void chunkIO$flushStorage(CallbackInfo ci) {
+        try {
+            this.chunkIO$storage.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to flush chunk storage in " + this.chunkSaveLocation, e);
+        }
+    }
+
+    @Override
+    public ChunkSaveQueue vanillaBridge$getSaveQueue() {
+        return this.chunkIO$saveQueue;
+    }
+
+    @Override
+    public ChunkPrefetchCache vanillaBridge$getPrefetchCache() {
+        return this.chunkIO$prefetchCache;
+    }
+
+    @Override
+    public WarmChunkCache vanillaBridge$getWarmCache() {
+        return this.chunkIO$warmCache;
+    }
+
+    @Override
+    public ChunkStorage vanillaBridge$getStorage() {
+        return this.chunkIO$storage;
+    }
+
 }
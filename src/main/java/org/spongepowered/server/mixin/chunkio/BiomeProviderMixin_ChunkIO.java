@@ -0,0 +1,106 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.mixin.chunkio;
+
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.biome.BiomeCache;
+import net.minecraft.world.biome.BiomeProvider;
+import net.minecraft.world.gen.layer.GenLayer;
+import net.minecraft.world.gen.layer.IntCache;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Redirect;
+import org.spongepowered.server.world.chunkio.ChunkGenerationExecutor;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nullable;
+
+/**
+ * Makes the biome generation safe to use from the main thread and the chunk
+ * generation thread at the same time, see {@link ChunkGenerationExecutor}.
+ */
+@Mixin(BiomeProvider.class)
+public abstract class BiomeProviderMixin_ChunkIO {
+
+    // Guards the biome cache of this world
+    private final ReentrantLock chunkIO$cacheLock = new ReentrantLock();
+
+    // The arrays returned by the biome layers are reused once the IntCache is reset,
+    // so reset it and copy the result while holding the lock
+
+    @Redirect(method = {"getBiomesForGeneration", "getBiomes([Lnet/minecraft/world/biome/Biome;IIIIZ)[Lnet/minecraft/world/biome/Biome;",
+        "areBiomesViable", "findBiomePosition"},
+        at = @At(value = "INVOKE", target = "Lnet/minecraft/world/gen/layer/IntCache;resetIntCache()V"))
+    private void chunkIO$resetIntCacheLocked() {
+        // Reset in getIntsLocked
+    }
+
+    @Redirect(method = {"getBiomesForGeneration", "getBiomes([Lnet/minecraft/world/biome/Biome;IIIIZ)[Lnet/minecraft/world/biome/Biome;",
+        "areBiomesViable", "findBiomePosition"},
+        at = @At(value = "INVOKE", target = "Lnet/minecraft/world/gen/layer/GenLayer;getInts(IIII)[I"))
+    private int[] chunkIO$getIntsLocked(GenLayer layer, int x, int z, int width, int height) {
+        ChunkGenerationExecutor.BIOME_LOCK.lock();
+        try {
+            IntCache.resetIntCache();
+            return layer.getInts(x, z, width, height).clone();
+        } finally {
+            ChunkGenerationExecutor.BIOME_LOCK.unlock();
+        }
+    }
+
+    @Redirect(method = "getBiome(Lnet/minecraft/util/math/BlockPos;Lnet/minecraft/world/biome/Biome;)Lnet/minecraft/world/biome/Biome;",
+        at = @At(value = "INVOKE", target = "Lnet/minecraft/world/biome/BiomeCache;getBiome(IILnet/minecraft/world/biome/Biome;)Lnet/minecraft/world/biome/Biome;"))
+    private Biome chunkIO$getCachedBiomeLocked(BiomeCache cache, int x, int z, @Nullable Biome defaultValue) {
+        this.chunkIO$cacheLock.lock();
+        try {
+            return cache.getBiome(x, z, defaultValue);
+        } finally {
+            this.chunkIO$cacheLock.unlock();
+        }
+    }
+
+    @Redirect(method = "getBiomes([Lnet/minecraft/world/biome/Biome;IIIIZ)[Lnet/minecraft/world/biome/Biome;",
+        at = @At(value = "INVOKE", target = "Lnet/minecraft/world/biome/BiomeCache;getCachedBiomes(II)[Lnet/minecraft/world/biome/Biome;"))
+    private Biome[] chunkIO$getCachedBiomesLocked(BiomeCache cache, int x, int z) {
+        this.chunkIO$cacheLock.lock();
+        try {
+            return cache.getCachedBiomes(x, z);
+        } finally {
+            this.chunkIO$cacheLock.unlock();
+        }
+    }
+
+    @Redirect(method = "cleanupCache", at = @At(value = "INVOKE", target = "Lnet/minecraft/world/biome/BiomeCache;cleanupCache()V"))
+    private void chunkIO$cleanupCacheLocked(BiomeCache cache) {
+        this.chunkIO$cacheLock.lock();
+        try {
+            cache.cleanupCache();
+        } finally {
+            this.chunkIO$cacheLock.unlock();
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.mixin.chunkio;
+
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.gen.IChunkGenerator;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.Redirect;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+import org.spongepowered.server.world.chunkio.ChunkGenerationExecutor;
+import org.spongepowered.server.world.chunkio.ChunkPacketCache;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+@Mixin(Chunk.class)
+public abstract class ChunkMixin_ChunkIO {
+
+    @Shadow @Final private World world;
+    @Shadow @Final public int x;
+    @Shadow @Final public int z;
+
+    // Also called when tile entities change, which players are not always notified about
+    @Inject(method = "markDirty", at = @At("HEAD"))
+    private void chunkIO$invalidatePacket(CallbackInfo ci) {
+        chunkIO$invalidatePacket();
+    }
+
+    // Sets the chunk as modified directly, and players are not notified about changes with flags that skip the block update
+    @Inject(method = "setBlockState", at = @At("RETURN"))
+    private void chunkIO$invalidatePacketOnBlockChange(BlockPos pos, IBlockState state, CallbackInfoReturnable<IBlockState> cir) {
+        if (cir.getReturnValue() != null) { // The block was changed
+            chunkIO$invalidatePacket();
+        }
+    }
+
+    private void chunkIO$invalidatePacket() {
+        if (this.world instanceof WorldServer && this.world.getMinecraftServer().isCallingFromMinecraftThread()) {
+            ChunkPacketCache.get((WorldServer) this.world).invalidate(this.x, this.z);
+        }
+    }
+
+    // The chunk generator may be in use by the chunk generation thread, see ChunkGenerationExecutor
+
+    @Redirect(method = "populate(Lnet/minecraft/world/gen/IChunkGenerator;)V",
+        at = @At(value = "INVOKE", target = "Lnet/minecraft/world/gen/IChunkGenerator;populate(II)V"))
+    private void chunkIO$populateLocked(IChunkGenerator generator, int x, int z) {
+        final ReentrantLock lock = chunkIO$getGeneratorLock();
+        lock.lock();
+        try {
+            generator.populate(x, z);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Redirect(method = "populate(Lnet/minecraft/world/gen/IChunkGenerator;)V",
+        at = @At(value = "INVOKE", target = "Lnet/minecraft/world/gen/IChunkGenerator;generateStructures(Lnet/minecraft/world/chunk/Chunk;II)Z"))
+    private boolean chunkIO$generateStructuresLocked(IChunkGenerator generator, Chunk chunk, int x, int z) {
+        final ReentrantLock lock = chunkIO$getGeneratorLock();
+        lock.lock();
+        try {
+            return generator.generateStructures(chunk, x, z);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ReentrantLock chunkIO$getGeneratorLock() {
+        return ChunkGenerationExecutor.getGeneratorLock(((WorldServer) this.world).getChunkProvider());
+    }
+
+}
@@ -27,6 +27,7 @@
 import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import net.minecraft.world.WorldServer;
 import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.IChunkLoader;
 import net.minecraft.world.gen.ChunkProviderServer;
 import net.minecraft.world.gen.IChunkGenerator;
 import org.spongepowered.asm.mixin.Mixin;
@@ -42,4 +43,6 @@ public interface ChunkProviderServerAccessor_Vanilla {
 
     @Accessor("world") WorldServer chunkIOAccessor$getWorld();
 
+    @Accessor("chunkLoader") IChunkLoader chunkIOAccessor$getChunkLoader();
+
 }
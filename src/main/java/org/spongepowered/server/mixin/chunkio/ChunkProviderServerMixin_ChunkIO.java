@@ -25,21 +25,33 @@
 package org.spongepowered.server.mixin.chunkio;
 
 import co.aikar.timings.Timing;
+import net.minecraft.entity.EnumCreatureType;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
 import net.minecraft.world.WorldServer;
+import net.minecraft.world.biome.Biome;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.IChunkProvider;
 import net.minecraft.world.chunk.storage.AnvilChunkLoader;
 import net.minecraft.world.chunk.storage.IChunkLoader;
 import net.minecraft.world.gen.ChunkProviderServer;
+import net.minecraft.world.gen.IChunkGenerator;
 import net.minecraftforge.common.chunkio.ChunkIOExecutor;
+import net.minecraftforge.common.chunkio.ChunkLoadHandle;
 import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Overwrite;
 import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Redirect;
 import org.spongepowered.common.bridge.world.WorldServerBridge;
 import org.spongepowered.common.bridge.world.chunk.ChunkProviderServerBridge;
 import org.spongepowered.server.bridge.world.chunkio.ChunkIOProviderBridge_Vanilla;
+import org.spongepowered.server.world.chunkio.ChunkGenerationExecutor;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 
 import javax.annotation.Nullable;
@@ -50,6 +62,8 @@ public abstract class ChunkProviderServerMixin_ChunkIO implements IChunkProvider
     @Shadow @Final private IChunkLoader chunkLoader;
     @Shadow @Final private WorldServer world;
 
+    private final ReentrantLock chunkIO$generatorLock = new ReentrantLock();
+
     /**
      * @author Minecrell - May 28th, 2016
      * @reason Load chunk through asynchronous executor
@@ -57,26 +71,18 @@ public abstract class ChunkProviderServerMixin_ChunkIO implements IChunkProvider
     @Nullable
     @Overwrite
     public Chunk loadChunk(int x, int z) {
-        return vanillaBridge$loadChunk(x, z, null);
+        Chunk chunk = getLoadedChunk(x, z);
+        return chunk != null ? chunk : bridge$loadChunkForce(x, z); // Load chunk synchronously
     }
 
-    @Nullable
     @Override
-    public Chunk vanillaBridge$loadChunk(int x, int z, @Nullable Consumer<Chunk> callback) {
+    public ChunkLoadHandle vanillaBridge$loadChunk(int x, int z) {
         Chunk chunk = getLoadedChunk(x, z);
-
         if (chunk != null) {
-            if (callback != null) {
-                callback.accept(chunk);
-            }
-
-            return chunk;
-        } else if (callback != null) {
-            ChunkIOExecutor.queueChunkLoad(this.world, (AnvilChunkLoader) this.chunkLoader, (ChunkProviderServer) (Object) this, x, z, callback);
-            return null;
-        } else {
-            return bridge$loadChunkForce(x, z); // Load chunk synchronously
+            return ChunkLoadHandle.completed(chunk);
         }
+
+        return ChunkIOExecutor.queueChunkLoad(this.world, (AnvilChunkLoader) this.chunkLoader, (ChunkProviderServer) (Object) this, x, z);
     }
 
     /**
@@ -93,4 +99,73 @@ public Chunk loadChunk(int x, int z) {
         }
     }
 
+    @Override
+    public void vanillaBridge$generateChunk(int x, int z, Consumer<Chunk> callback) {
+        Chunk chunk = getLoadedChunk(x, z);
+
+        if (chunk != null) {
+            callback.accept(chunk);
+        } else {
+            ChunkGenerationExecutor.queueGeneration((ChunkProviderServer) (Object) this, x, z, callback);
+        }
+    }
+
+    @Override
+    public ReentrantLock vanillaBridge$getGeneratorLock() {
+        return this.chunkIO$generatorLock;
+    }
+
+    // The chunk generator may be in use by the chunk generation thread, see ChunkGenerationExecutor
+
+    @Redirect(method = "provideChunk",
+        at = @At(value = "INVOKE", target = "Lnet/minecraft/world/gen/IChunkGenerator;generateChunk(II)Lnet/minecraft/world/chunk/Chunk;"))
+    private Chunk chunkIO$generateChunkLocked(IChunkGenerator generator, int x, int z) {
+        this.chunkIO$generatorLock.lock();
+        try {
+            return generator.generateChunk(x, z);
+        } finally {
+            this.chunkIO$generatorLock.unlock();
+        }
+    }
+
+    @Redirect(method = "getPossibleCreatures", at = @At(value = "INVOKE",
+        target = "Lnet/minecraft/world/gen/IChunkGenerator;getPossibleCreatures(Lnet/minecraft/entity/EnumCreatureType;Lnet/minecraft/util/math/BlockPos;)Ljava/util/List;"))
+    private List<Biome.SpawnListEntry> chunkIO$getPossibleCreaturesLocked(IChunkGenerator generator, EnumCreatureType creatureType, BlockPos pos) {
+        // Called for every spawn attempt, skip it instead of waiting for the generation thread
+        if (!this.chunkIO$generatorLock.tryLock()) {
+            return Collections.emptyList();
+        }
+        try {
+            return generator.getPossibleCreatures(creatureType, pos);
+        } finally {
+            this.chunkIO$generatorLock.unlock();
+        }
+    }
+
+    @Nullable
+    @Redirect(method = "getNearestStructurePos", at = @At(value = "INVOKE",
+        target = "Lnet/minecraft/world/gen/IChunkGenerator;getNearestStructurePos(Lnet/minecraft/world/World;Ljava/lang/String;"
+            + "Lnet/minecraft/util/math/BlockPos;Z)Lnet/minecraft/util/math/BlockPos;"))
+    private BlockPos chunkIO$getNearestStructurePosLocked(IChunkGenerator generator, World world, String structureName, BlockPos position,
+            boolean findUnexplored) {
+        this.chunkIO$generatorLock.lock();
+        try {
+            return generator.getNearestStructurePos(world, structureName, position, findUnexplored);
+        } finally {
+            this.chunkIO$generatorLock.unlock();
+        }
+    }
+
+    @Redirect(method = "isInsideStructure", at = @At(value = "INVOKE",
+        target = "Lnet/minecraft/world/gen/IChunkGenerator;isInsideStructure(Lnet/minecraft/world/World;Ljava/lang/String;"
+            + "Lnet/minecraft/util/math/BlockPos;)Z"))
+    private boolean chunkIO$isInsideStructureLocked(IChunkGenerator generator, World world, String structureName, BlockPos pos) {
+        this.chunkIO$generatorLock.lock();
+        try {
+            return generator.isInsideStructure(world, structureName, pos);
+        } finally {
+            this.chunkIO$generatorLock.unlock();
+        }
+    }
+
 }
@@ -28,6 +28,11 @@
 import net.minecraftforge.common.chunkio.ChunkIOExecutor;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.server.bridge.ChunkLoaderTickBridge;
+import org.spongepowered.server.world.chunkio.ChunkGenerationExecutor;
+import org.spongepowered.server.world.chunkio.ChunkPrefetcher;
+import org.spongepowered.server.world.chunkio.ChunkPregenerator;
+import org.spongepowered.server.world.chunkio.ChunkSendLimiter;
+import org.spongepowered.server.world.chunkio.DynamicViewDistance;
 
 @Mixin(value = MinecraftServer.class, priority = 1112)
 public abstract class MinecraftServerMixin_ChunkIO implements ChunkLoaderTickBridge {
@@ -39,6 +44,11 @@ public abstract class MinecraftServerMixin_ChunkIO implements ChunkLoaderTickBri
     @Override
     public void chunkIO$tickChunkLoader() {
         ChunkIOExecutor.tick();
+        ChunkGenerationExecutor.tick();
+        ChunkPrefetcher.tick((MinecraftServer) (Object) this);
+        ChunkPregenerator.tick((MinecraftServer) (Object) this);
+        ChunkSendLimiter.tick((MinecraftServer) (Object) this);
+        DynamicViewDistance.tick((MinecraftServer) (Object) this);
     }
 
 }
@@ -24,12 +24,18 @@
  */
 package org.spongepowered.server.mixin.chunkio;
 
+import net.minecraft.entity.EntityTracker;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.network.NetHandlerPlayServer;
+import net.minecraft.network.Packet;
+import net.minecraft.network.play.server.SPacketChunkData;
 import net.minecraft.server.management.PlayerChunkMap;
 import net.minecraft.server.management.PlayerChunkMapEntry;
 import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.gen.ChunkProviderServer;
 import net.minecraftforge.common.chunkio.ChunkIOExecutor;
+import net.minecraftforge.common.chunkio.ChunkLoadHandle;
 import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
@@ -37,36 +43,56 @@
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.Redirect;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 import org.spongepowered.common.bridge.world.chunk.ChunkBridge;
+import org.spongepowered.server.bridge.world.chunkio.ChunkIOPlayerChunkMapEntryBridge_Vanilla;
 import org.spongepowered.server.bridge.world.chunkio.ChunkIOProviderBridge_Vanilla;
+import org.spongepowered.server.world.chunkio.ChunkLoadPriority;
+import org.spongepowered.server.world.chunkio.ChunkPacketCache;
+import org.spongepowered.server.world.chunkio.ChunkSendLimiter;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Consumer;
 
 import javax.annotation.Nullable;
 
 @Mixin(PlayerChunkMapEntry.class)
-public abstract class PlayerChunkMapEntryMixin_ChunkIO implements Consumer<Chunk> {
+public abstract class PlayerChunkMapEntryMixin_ChunkIO implements Consumer<Chunk>, ChunkIOPlayerChunkMapEntryBridge_Vanilla {
 
     @Shadow @Final public PlayerChunkMap playerChunkMap;
     @Shadow @Final public ChunkPos pos;
     @Shadow @Nullable public Chunk chunk;
+    @Shadow @Final private List<EntityPlayerMP> players;
+    @Shadow private boolean sentToPlayers;
 
-    private boolean chunkIO$loading;
+    @Shadow public abstract void sendToPlayer(EntityPlayerMP player);
+
+    @Nullable private ChunkLoadHandle chunkIO$load;
+    private double chunkIO$priority = Double.MAX_VALUE;
+    private int chunkIO$priorityTick;
+
+    // Players waiting for their chunk send budget, see ChunkSendLimiter
+    @Nullable private List<EntityPlayerMP> chunkIO$deferredPlayers;
+    private boolean chunkIO$sendingDeferred;
 
     @Nullable
     private Chunk chunkIO$loadChunkAsync(ChunkProviderServer provider, int x, int z) {
-        if (this.chunkIO$loading) {
+        if (this.chunkIO$load != null) {
             return null;
         }
 
-        this.chunkIO$loading = true;
-        return ((ChunkIOProviderBridge_Vanilla) provider).vanillaBridge$loadChunk(x, z, this);
+        final ChunkLoadHandle load = ((ChunkIOProviderBridge_Vanilla) provider).vanillaBridge$loadChunk(x, z);
+        this.chunkIO$load = load;
+        load.thenAccept(this); // Called immediately if the chunk is already loaded
+        return load.getNow(null);
     }
 
     @Override
     public void accept(@Nullable Chunk chunk) {
         this.chunk = chunk;
-        this.chunkIO$loading = false;
+        this.chunkIO$load = null;
+        this.chunkIO$priority = Double.MAX_VALUE;
 
         if (chunk != null) {
             ((ChunkBridge) chunk).bridge$setScheduledForUnload(-1);
@@ -84,17 +110,154 @@ public void accept(@Nullable Chunk chunk) {
         at = @At(value = "INVOKE", target = "Lnet/minecraft/server/management/PlayerChunkMap;removeEntry"
             + "(Lnet/minecraft/server/management/PlayerChunkMapEntry;)V"))
     private void chunkIO$onRemoveEntry(CallbackInfo ci) {
-        if (this.chunkIO$loading) {
+        ChunkPacketCache.get(this.playerChunkMap.getWorldServer()).invalidate(this.pos.x, this.pos.z);
+        if (this.chunkIO$load != null) {
             // Don't load the chunk if we haven't loaded it yet
-            ChunkIOExecutor.dropQueuedChunkLoad(this.playerChunkMap.getWorldServer(), this.pos.x, this.pos.z, this);
+            this.chunkIO$load.cancel(false);
+            this.chunkIO$load = null;
+        }
+    }
+
+    @Redirect(method = {"sendToPlayers", "sendToPlayer"}, at = @At(value = "NEW", target = "net/minecraft/network/play/server/SPacketChunkData"))
+    private SPacketChunkData chunkIO$getCachedChunkPacket(Chunk chunk, int sections) {
+        // Players that start watching an unchanged chunk share the same packet
+        return ChunkPacketCache.get(this.playerChunkMap.getWorldServer()).getPacket(chunk, sections);
+    }
+
+    @Redirect(method = "sendToPlayers",
+        at = @At(value = "INVOKE", target = "Lnet/minecraft/network/NetHandlerPlayServer;sendPacket(Lnet/minecraft/network/Packet;)V"))
+    private void chunkIO$sendChunkWithinBudget(NetHandlerPlayServer connection, Packet<?> packet) {
+        if (ChunkSendLimiter.tryAcquire(connection.player)) {
+            connection.sendPacket(packet);
+        } else {
+            chunkIO$defer(connection.player);
+        }
+    }
+
+    @Redirect(method = "sendToPlayers",
+        at = @At(value = "INVOKE", target = "Lnet/minecraft/entity/EntityTracker;sendLeashedEntitiesInChunk"
+            + "(Lnet/minecraft/entity/player/EntityPlayerMP;Lnet/minecraft/world/chunk/Chunk;)V"))
+    private void chunkIO$sendLeashedEntitiesIfSent(EntityTracker tracker, EntityPlayerMP player, Chunk chunk) {
+        if (!vanillaBridge$isDeferred(player)) {
+            tracker.sendLeashedEntitiesInChunk(player, chunk);
+        }
+    }
+
+    @Inject(method = "sendToPlayer", at = @At("HEAD"), cancellable = true)
+    private void chunkIO$sendToPlayerWithinBudget(EntityPlayerMP player, CallbackInfo ci) {
+        if (!this.sentToPlayers || this.chunkIO$sendingDeferred) {
+            return;
         }
+
+        if (vanillaBridge$isDeferred(player) || !ChunkSendLimiter.tryAcquire(player)) {
+            chunkIO$defer(player);
+            ci.cancel();
+        }
+    }
+
+    @Inject(method = "sendPacket", at = @At("HEAD"), cancellable = true)
+    private void chunkIO$skipDeferredPlayers(Packet<?> packet, CallbackInfo ci) {
+        if (this.chunkIO$deferredPlayers != null) {
+            // Changes to chunks the client doesn't have yet are included once the chunk is sent
+            for (EntityPlayerMP player : this.players) {
+                if (!this.chunkIO$deferredPlayers.contains(player)) {
+                    player.connection.sendPacket(packet);
+                }
+            }
+            ci.cancel();
+        }
+    }
+
+    @Inject(method = "removePlayer", at = @At("HEAD"))
+    private void chunkIO$onRemovePlayerDeferred(EntityPlayerMP player, CallbackInfo ci) {
+        if (this.chunkIO$deferredPlayers != null && this.chunkIO$deferredPlayers.remove(player) && this.chunkIO$deferredPlayers.isEmpty()) {
+            this.chunkIO$deferredPlayers = null;
+        }
+    }
+
+    private void chunkIO$defer(EntityPlayerMP player) {
+        if (this.chunkIO$deferredPlayers == null) {
+            this.chunkIO$deferredPlayers = new ArrayList<>(1);
+        } else if (this.chunkIO$deferredPlayers.contains(player)) {
+            return;
+        }
+
+        this.chunkIO$deferredPlayers.add(player);
+        ChunkSendLimiter.defer(player, (PlayerChunkMapEntry) (Object) this);
+    }
+
+    @Override
+    public boolean vanillaBridge$isDeferred(EntityPlayerMP player) {
+        return this.chunkIO$deferredPlayers != null && this.chunkIO$deferredPlayers.contains(player);
+    }
+
+    @Override
+    public boolean vanillaBridge$sendDeferred(EntityPlayerMP player) {
+        if (this.chunkIO$deferredPlayers == null || !this.chunkIO$deferredPlayers.remove(player)) {
+            return false;
+        }
+        if (this.chunkIO$deferredPlayers.isEmpty()) {
+            this.chunkIO$deferredPlayers = null;
+        }
+
+        this.chunkIO$sendingDeferred = true;
+        try {
+            sendToPlayer(player);
+        } finally {
+            this.chunkIO$sendingDeferred = false;
+        }
+        ChunkSendLimiter.trackEntities(this.playerChunkMap.getWorldServer(), player, this.chunk);
+        return true;
+    }
+
+    @Inject(method = "blockChanged", at = @At("HEAD"))
+    private void chunkIO$onBlockChanged(int x, int y, int z, CallbackInfo ci) {
+        ChunkPacketCache.get(this.playerChunkMap.getWorldServer()).invalidate(this.pos.x, this.pos.z);
+    }
+
+    @Inject(method = "addPlayer", at = @At("RETURN"))
+    private void chunkIO$onAddPlayer(EntityPlayerMP player, CallbackInfo ci) {
+        chunkIO$updateLoadPriority();
+    }
+
+    @Inject(method = "removePlayer", at = @At("RETURN"))
+    private void chunkIO$onRemovePlayer(EntityPlayerMP player, CallbackInfo ci) {
+        chunkIO$updateLoadPriority();
+    }
+
+    @Inject(method = "providePlayerChunk", at = @At("HEAD"))
+    private void chunkIO$onProvidePlayerChunk(boolean canGenerate, CallbackInfoReturnable<Boolean> cir) {
+        // Called every tick for entries that are still waiting for their chunk,
+        // so this keeps the load priority up-to-date while the players are moving
+        if (this.chunkIO$load != null && ChunkLoadPriority.needsUpdate(this.players, this.chunkIO$priorityTick, chunkIO$getTick())) {
+            chunkIO$updateLoadPriority();
+        }
+    }
+
+    private void chunkIO$updateLoadPriority() {
+        if (this.chunkIO$load == null || this.players.isEmpty()) {
+            return;
+        }
+
+        final int tick = chunkIO$getTick();
+        this.chunkIO$priorityTick = tick;
+        // Round to whole chunks to avoid re-queuing the load for small movements
+        final double priority = Math.floor(ChunkLoadPriority.getPriority(this.pos, this.players, tick));
+        if (priority != this.chunkIO$priority) {
+            this.chunkIO$priority = priority;
+            ChunkIOExecutor.updatePriority(this.playerChunkMap.getWorldServer(), this.pos.x, this.pos.z, priority);
+        }
+    }
+
+    private int chunkIO$getTick() {
+        return this.playerChunkMap.getWorldServer().getMinecraftServer().getTickCounter();
     }
 
     @Nullable
     @Redirect(method = "providePlayerChunk",
         at = @At(value = "INVOKE", target = "Lnet/minecraft/world/gen/ChunkProviderServer;provideChunk(II)Lnet/minecraft/world/chunk/Chunk;"))
     private Chunk chunkIO$onProvideChunk(ChunkProviderServer provider, int x, int z) {
-        return this.chunkIO$loading ? null : provider.provideChunk(x, z); // Don't try to generate while still attempting to load
+        return this.chunkIO$load != null ? null : provider.provideChunk(x, z); // Don't try to generate while still attempting to load
     }
 
     @Nullable
@@ -0,0 +1,55 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.mixin.chunkio;
+
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.server.management.PlayerChunkMap;
+import net.minecraft.server.management.PlayerChunkMapEntry;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+import org.spongepowered.server.bridge.world.chunkio.ChunkIOPlayerChunkMapEntryBridge_Vanilla;
+
+import javax.annotation.Nullable;
+
+@Mixin(PlayerChunkMap.class)
+public abstract class PlayerChunkMapMixin_ChunkIO {
+
+    @Shadow @Nullable public abstract PlayerChunkMapEntry getEntry(int x, int z);
+
+    @Inject(method = "isPlayerWatchingChunk", at = @At("RETURN"), cancellable = true)
+    private void chunkIO$isChunkSentToPlayer(EntityPlayerMP player, int chunkX, int chunkZ, CallbackInfoReturnable<Boolean> cir) {
+        // The client doesn't have chunks that are still waiting for the send budget of the player, see ChunkSendLimiter
+        if (cir.getReturnValue()) {
+            final PlayerChunkMapEntry entry = getEntry(chunkX, chunkZ);
+            if (entry != null && ((ChunkIOPlayerChunkMapEntryBridge_Vanilla) entry).vanillaBridge$isDeferred(player)) {
+                cir.setReturnValue(false);
+            }
+        }
+    }
+
+}
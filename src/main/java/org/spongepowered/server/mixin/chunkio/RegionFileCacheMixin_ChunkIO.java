@@ -0,0 +1,66 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.mixin.chunkio;
+
+import net.minecraft.world.chunk.storage.RegionFile;
+import net.minecraft.world.chunk.storage.RegionFileCache;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+import org.spongepowered.server.world.chunkio.AsyncWorldUnloader;
+import org.spongepowered.server.world.chunkio.RegionFileHandleCache;
+
+import java.io.File;
+
+/**
+ * Redirects the remaining vanilla users of the region file cache, e.g.
+ * {@code AnvilChunkLoader.isChunkGeneratedAt}, to the
+ * {@link RegionFileHandleCache}.
+ */
+@Mixin(RegionFileCache.class)
+public abstract class RegionFileCacheMixin_ChunkIO {
+
+    @Inject(method = "createOrLoadRegionFile", at = @At("HEAD"), cancellable = true)
+    private static void chunkIO$createOrLoadRegionFile(File worldDir, int chunkX, int chunkZ, CallbackInfoReturnable<RegionFile> cir) {
+        cir.setReturnValue(RegionFileHandleCache.get(worldDir, chunkX, chunkZ));
+    }
+
+    @Inject(method = "getRegionFileIfExists", at = @At("HEAD"), cancellable = true)
+    private static void chunkIO$getRegionFileIfExists(File worldDir, int chunkX, int chunkZ, CallbackInfoReturnable<RegionFile> cir) {
+        cir.setReturnValue(RegionFileHandleCache.getIfExists(worldDir, chunkX, chunkZ));
+    }
+
+    @Inject(method = "clearRegionFileReferences", at = @At("HEAD"), cancellable = true)
+    private static void chunkIO$clearRegionFileReferences(CallbackInfo ci) {
+        // The region files of unloaded worlds are closed by the AsyncWorldUnloader
+        if (!AsyncWorldUnloader.isDetaching()) {
+            RegionFileHandleCache.closeAll();
+        }
+        ci.cancel();
+    }
+
+}
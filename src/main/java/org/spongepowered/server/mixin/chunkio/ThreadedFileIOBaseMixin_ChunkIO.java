@@ -24,27 +24,24 @@
  */
 package org.spongepowered.server.mixin.chunkio;
 
-import net.minecraft.server.management.PlayerList;
-import net.minecraftforge.common.chunkio.ChunkIOExecutor;
+import net.minecraft.world.storage.ThreadedFileIOBase;
 import org.spongepowered.asm.mixin.Mixin;
-import org.spongepowered.asm.mixin.Shadow;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import org.spongepowered.server.world.chunkio.AsyncWorldUnloader;
+import org.spongepowered.server.world.chunkio.ChunkSaveExecutor;
 
-@Mixin(PlayerList.class)
-public abstract class PlayerListMixin_ChunkIO {
+@Mixin(ThreadedFileIOBase.class)
+public abstract class ThreadedFileIOBaseMixin_ChunkIO {
 
-    @Shadow public abstract int getCurrentPlayerCount();
-
-    @Inject(method = "playerLoggedIn", at = @At("HEAD"))
-    private void chunkIO$adjustChunkLoadingPoolJoin(CallbackInfo ci) {
-        ChunkIOExecutor.adjustPoolSize(getCurrentPlayerCount() + 1); // Called before the player is added
-    }
-
-    @Inject(method = "playerLoggedOut", at = @At("RETURN"))
-    private void chunkIO$adjustChunkLoadingPoolQuit(CallbackInfo ci) {
-        ChunkIOExecutor.adjustPoolSize(getCurrentPlayerCount());
+    @Inject(method = "waitForFinish", at = @At("HEAD"))
+    private void chunkIO$flushChunkSaves(CallbackInfo ci) {
+        // Chunks are no longer written by this thread, make sure they are
+        // written as well before the region files are closed
+        if (!AsyncWorldUnloader.isDetaching()) {
+            ChunkSaveExecutor.flushAll();
+        }
     }
 
 }
@@ -25,12 +25,14 @@
 package org.spongepowered.server.mixin.chunkio;
 
 import net.minecraft.world.chunk.IChunkProvider;
+import net.minecraftforge.common.chunkio.ChunkLoadHandle;
 import org.spongepowered.api.world.Chunk;
 import org.spongepowered.api.world.World;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
 import org.spongepowered.common.world.storage.SpongeChunkLayout;
 import org.spongepowered.server.bridge.world.chunkio.ChunkIOProviderBridge_Vanilla;
+import org.spongepowered.server.world.chunkio.ChunkIOSettings;
 
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
@@ -42,8 +44,8 @@ public abstract class WorldMixin_ChunkIO implements World {
 
     @Override
     public CompletableFuture<Optional<Chunk>> loadChunkAsync(int cx, int cy, int cz, boolean shouldGenerate) {
-        // Currently, we can only load asynchronously if the chunk should not be generated
-        if (shouldGenerate) {
+        // Generating asynchronously is only safe if enabled, otherwise generate synchronously
+        if (shouldGenerate && !ChunkIOSettings.ASYNC_GENERATION) {
             return World.super.loadChunkAsync(cx, cy, cz, true);
         }
 
@@ -51,9 +53,23 @@ public CompletableFuture<Optional<Chunk>> loadChunkAsync(int cx, int cy, int cz,
             return CompletableFuture.completedFuture(Optional.empty());
         }
 
+        final ChunkIOProviderBridge_Vanilla provider = (ChunkIOProviderBridge_Vanilla) this.chunkProvider;
+        final ChunkLoadHandle load = provider.vanillaBridge$loadChunk(cx, cz);
         CompletableFuture<Optional<Chunk>> future = new CompletableFuture<>();
-        ((ChunkIOProviderBridge_Vanilla) this.chunkProvider).vanillaBridge$loadChunk(cx, cz,
-                chunk -> future.complete(Optional.ofNullable((Chunk) chunk)));
+        load.thenAccept(chunk -> {
+            if (chunk == null && shouldGenerate) {
+                // Not stored yet, so generate it (we are on the main thread again)
+                provider.vanillaBridge$generateChunk(cx, cz, generated -> future.complete(Optional.ofNullable((Chunk) generated)));
+            } else {
+                future.complete(Optional.ofNullable((Chunk) chunk));
+            }
+        });
+        // Release the shared load if the plugin cancels the returned future
+        future.whenComplete((chunk, error) -> {
+            if (future.isCancelled()) {
+                load.cancel(false);
+            }
+        });
         return future;
     }
 
@@ -0,0 +1,56 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.mixin.chunkio;
+
+import net.minecraft.world.WorldServer;
+import net.minecraftforge.common.chunkio.WorldLoadTasks;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.server.bridge.world.chunkio.ChunkIOWorldBridge_Vanilla;
+import org.spongepowered.server.world.chunkio.ChunkPacketCache;
+import org.spongepowered.server.world.chunkio.IncrementalChunkGC;
+
+@Mixin(WorldServer.class)
+public abstract class WorldServerMixin_ChunkIO implements ChunkIOWorldBridge_Vanilla {
+
+    private final WorldLoadTasks chunkIO$loadTasks = new WorldLoadTasks((WorldServer) (Object) this);
+    private final IncrementalChunkGC chunkIO$chunkGC = new IncrementalChunkGC((WorldServer) (Object) this);
+    private final ChunkPacketCache chunkIO$packetCache = new ChunkPacketCache();
+
+    @Override
+    public WorldLoadTasks vanillaBridge$getLoadTasks() {
+        return this.chunkIO$loadTasks;
+    }
+
+    @Override
+    public IncrementalChunkGC vanillaBridge$getChunkGC() {
+        return this.chunkIO$chunkGC;
+    }
+
+    @Override
+    public ChunkPacketCache vanillaBridge$getPacketCache() {
+        return this.chunkIO$packetCache;
+    }
+
+}
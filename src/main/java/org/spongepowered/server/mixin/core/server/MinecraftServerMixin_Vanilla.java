@@ -57,6 +57,9 @@
 import org.spongepowered.common.world.WorldManager;
 import org.spongepowered.server.SpongeVanilla;
 import org.spongepowered.server.bridge.ChunkLoaderTickBridge;
+import org.spongepowered.server.world.chunkio.AsyncWorldUnloader;
+import org.spongepowered.server.world.chunkio.ChunkIOSettings;
+import org.spongepowered.server.world.chunkio.IncrementalChunkGC;
 
 import java.util.List;
 import java.util.Queue;
@@ -157,6 +160,9 @@ public void stopServer() {
 
             this.saveAllWorlds(false);
 
+            // Sponge - Finish writing worlds that are still being unloaded
+            AsyncWorldUnloader.awaitAll();
+
             for (WorldServer worldserver1 : this.worlds) {
                 if (worldserver1 != null) {
                     // Turn off Async Lighting
@@ -236,7 +242,12 @@ public void updateTimeLightAndEntities() {
                 // Sponge start - copy from SpongeCommon MinecraftServerMixin_Vanilla
                 WorldServerBridge spongeWorld = (WorldServerBridge) worldServer;
                 if (spongeWorld.bridge$getChunkGCTickInterval() > 0) {
-                    spongeWorld.bridge$doChunkGC();
+                    // Spread over several ticks if enabled
+                    if (ChunkIOSettings.INCREMENTAL_CHUNK_GC) {
+                        IncrementalChunkGC.get(worldServer).tick();
+                    } else {
+                        spongeWorld.bridge$doChunkGC();
+                    }
                 }
                 // Sponge end
 
@@ -289,7 +300,7 @@ public void updateTimeLightAndEntities() {
 
         // Sponge start - Unload requested worlds
         this.profiler.endStartSection("dim_unloading");
-        WorldManager.unloadQueuedWorlds();
+        AsyncWorldUnloader.unloadQueuedWorlds();
         // Sponge end
 
         this.profiler.endStartSection("connection");
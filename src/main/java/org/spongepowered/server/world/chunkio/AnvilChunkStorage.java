@@ -0,0 +1,271 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.world.chunkio;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.chunk.storage.RegionFile;
+import org.spongepowered.server.mixin.chunkio.RegionFileAccessor_ChunkIO;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+
+/**
+ * Stores chunks in the vanilla region files, which are opened through the
+ * {@link RegionFileHandleCache}. This is the default storage.
+ */
+public final class AnvilChunkStorage implements ChunkStorage {
+
+    private static final Pattern REGION_FILE = Pattern.compile("r\\.(-?\\d+)\\.(-?\\d+)\\.mca");
+    private static final int REGION_SIZE = 32;
+    private static final int DEFLATE_VERSION = 2;
+
+    private final File saveLocation;
+
+    private final AtomicInteger activeWrites = new AtomicInteger();
+    private final AtomicLong completedWrites = new AtomicLong();
+
+    public AnvilChunkStorage(File saveLocation) {
+        this.saveLocation = saveLocation;
+    }
+
+    static boolean hasRegionFiles(File saveLocation) {
+        final File[] files = new File(saveLocation, "region").listFiles((dir, name) -> REGION_FILE.matcher(name).matches());
+        return files != null && files.length > 0;
+    }
+
+    @Override
+    public ChunkIOSettings.StorageFormat getFormat() {
+        return ChunkIOSettings.StorageFormat.ANVIL;
+    }
+
+    @Nullable
+    @Override
+    public NBTTagCompound read(int x, int z) throws IOException {
+        // Read without locking the region file if enabled
+        if (ChunkIOSettings.REGION_READER == ChunkIOSettings.RegionReader.MAPPED) {
+            final long stamp = getWriteStamp();
+            if (stamp >= 0) {
+                final NBTTagCompound compound = readMapped(x, z, stamp);
+                if (compound != null) {
+                    return compound;
+                }
+            }
+        }
+
+        final ChunkDecompressor decompressor = ChunkDecompressor.get();
+        final long read = readRegionFile(x, z, decompressor);
+        return read != 0 ? decompressor.decode((int) read, (int) (read >>> 32)) : null;
+    }
+
+    @Nullable
+    @Override
+    public byte[] readCompressed(int x, int z) throws IOException {
+        final ChunkDecompressor decompressor = ChunkDecompressor.get();
+        final long read = readRegionFile(x, z, decompressor);
+        if (read == 0) {
+            return null;
+        }
+
+        final int length = (int) read;
+        final int version = (int) (read >>> 32);
+        if (version == DEFLATE_VERSION) {
+            return Arrays.copyOf(decompressor.input(length), length);
+        }
+
+        // Chunks from old versions may still be compressed with gzip
+        final NBTTagCompound compound = decompressor.decode(length, version);
+        if (compound == null) {
+            return null;
+        }
+
+        return ChunkCompressor.get().encode(compound);
+    }
+
+    /**
+     * Copies the compressed data of the chunk into the input buffer of the
+     * decompressor.
+     *
+     * @return The compression version in the upper and the length of the
+     *     compressed data in the lower 32 bits, or 0 if the chunk is not stored
+     */
+    private long readRegionFile(int x, int z, ChunkDecompressor decompressor) {
+        final long start = System.nanoTime();
+
+        // Copied from RegionFile.getChunkDataInputStream, keep this up-to-date!
+        // Only copy the compressed data while holding the lock, decompress afterwards
+        final int length;
+        final int version;
+        try (RegionFileHandleCache.Handle handle = RegionFileHandleCache.acquire(this.saveLocation, x, z)) {
+            final RegionFile region = handle.getRegion();
+            synchronized (region) {
+                try {
+                    final int offset = ((RegionFileAccessor_ChunkIO) region).chunkIOAccessor$getOffset(x & 31, z & 31);
+                    if (offset == 0) {
+                        return 0;
+                    }
+
+                    final RandomAccessFile dataFile = ((RegionFileAccessor_ChunkIO) region).chunkIOAccessor$getDataFile();
+                    final long position = (long) (offset >> 8) * 4096;
+                    final int sectors = offset & 255;
+                    if (position + sectors * 4096L > dataFile.length()) {
+                        return 0;
+                    }
+
+                    dataFile.seek(position);
+                    length = dataFile.readInt();
+                    if (length > 4096 * sectors || length <= 0) {
+                        return 0;
+                    }
+
+                    version = dataFile.readByte();
+                    dataFile.readFully(decompressor.input(length - 1), 0, length - 1);
+                } catch (IOException e) {
+                    return 0;
+                }
+            }
+        }
+
+        ChunkIOMetrics.READ.record(System.nanoTime() - start);
+        return (long) version << 32 | (length - 1);
+    }
+
+    /**
+     * Reads the chunk from the memory mapped region file. Returns null if
+     * the chunk could not be read or if a chunk was written in the meantime,
+     * in which case the caller falls back to the vanilla region file.
+     */
+    @Nullable
+    private NBTTagCompound readMapped(int x, int z, long stamp) {
+        NBTTagCompound compound = null;
+        try {
+            compound = MappedRegionFile.readChunk(this.saveLocation, x, z);
+        } catch (IOException | RuntimeException e) {
+            // Most likely partially written data, this is checked below
+            return null;
+        }
+
+        // Discard the data if a chunk was written while we were reading
+        return getWriteStamp() == stamp ? compound : null;
+    }
+
+    /**
+     * Returns a stamp that changes whenever a chunk was written to the
+     * region files, or -1 while a write is in progress. Lock-free readers
+     * can compare the stamp from before and after reading to detect if they
+     * might have read partially written data.
+     *
+     * @return The write stamp
+     */
+    private long getWriteStamp() {
+        final int active = this.activeWrites.get();
+        final long completed = this.completedWrites.get();
+        return active > 0 ? -1 : completed;
+    }
+
+    @Override
+    public void write(ChunkPos[] positions, byte[][] data, int[] lengths) {
+        this.activeWrites.incrementAndGet();
+        try (RegionFileHandleCache.Handle handle = RegionFileHandleCache.acquire(this.saveLocation, positions[0].x, positions[0].z)) {
+            final RegionFile region = handle.getRegion();
+            // Hold the region lock for the whole batch instead of acquiring it for every chunk
+            synchronized (region) {
+                for (int i = 0; i < data.length; i++) {
+                    if (data[i] != null) {
+                        ((RegionFileAccessor_ChunkIO) region).chunkIOAccessor$write(positions[i].x & 31, positions[i].z & 31, data[i], lengths[i]);
+                    }
+                }
+            }
+        } finally {
+            // Increment first, otherwise readers starting right now could get an outdated stamp
+            this.completedWrites.incrementAndGet();
+            this.activeWrites.decrementAndGet();
+        }
+    }
+
+    @Override
+    public boolean exists(int x, int z) {
+        final RegionFile region = RegionFileHandleCache.getIfExists(this.saveLocation, x, z);
+        return region != null && region.isChunkSaved(x & 31, z & 31);
+    }
+
+    /**
+     * Returns the sector the chunk starts at in its region file, so chunks
+     * of the same region can be read sequentially.
+     */
+    @Override
+    public int getLocality(int x, int z) {
+        final RegionFile region = RegionFileHandleCache.get(this.saveLocation, x, z);
+        return ((RegionFileAccessor_ChunkIO) region).chunkIOAccessor$getOffset(x & 31, z & 31) >>> 8;
+    }
+
+    @Override
+    public long[] list() {
+        final LongArrayList chunks = new LongArrayList();
+        final File[] files = new File(this.saveLocation, "region").listFiles();
+        if (files == null) {
+            return chunks.toLongArray();
+        }
+
+        for (File file : files) {
+            final Matcher matcher = REGION_FILE.matcher(file.getName());
+            if (!matcher.matches()) {
+                continue;
+            }
+
+            final int regionX = Integer.parseInt(matcher.group(1));
+            final int regionZ = Integer.parseInt(matcher.group(2));
+            final RegionFile region = RegionFileHandleCache.get(this.saveLocation, regionX * REGION_SIZE, regionZ * REGION_SIZE);
+            for (int x = 0; x < REGION_SIZE; x++) {
+                for (int z = 0; z < REGION_SIZE; z++) {
+                    if (region.isChunkSaved(x, z)) {
+                        chunks.add(ChunkPos.asLong(regionX * REGION_SIZE + x, regionZ * REGION_SIZE + z));
+                    }
+                }
+            }
+        }
+        return chunks.toLongArray();
+    }
+
+    @Override
+    public void flush() {
+        // Region files are written without buffering
+    }
+
+    @Override
+    public void close() {
+        RegionFileHandleCache.close(this.saveLocation);
+    }
+
+}
@@ -27,31 +27,29 @@
 import static net.minecraft.world.chunk.storage.AnvilChunkLoader.readChunkEntity;
 
 import net.minecraft.block.Block;
-import net.minecraft.nbt.CompressedStreamTools;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.nbt.NBTTagList;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.datafix.FixTypes;
 import net.minecraft.util.math.BlockPos;
-import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.World;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.storage.AnvilChunkLoader;
-import net.minecraft.world.chunk.storage.RegionFileCache;
+import org.spongepowered.server.bridge.world.chunkio.AnvilChunkLoaderBridge_Vanilla;
 import org.spongepowered.server.mixin.chunkio.AnvilChunkLoaderAccessor_ChunkIO;
-import org.spongepowered.server.mixin.core.world.chunk.storage.AnvilChunkLoaderAccessor_Vanilla;
 
-import java.io.DataInputStream;
 import java.io.IOException;
 
+import javax.annotation.Nullable;
+
 public final class AsyncAnvilChunkLoader {
 
     private AsyncAnvilChunkLoader() {
     }
 
     /**
-     * Returns the NBT data for the chunk. Returns the cached data if already
-     * loaded, otherwise it will check the stored files for the chunk.
+     * Returns the NBT data for the chunk. Returns the data waiting to be
+     * saved if present, otherwise it will check the stored files for the chunk.
      *
      * <p>This is save to call asynchronously from a separate thread.</p>
      *
@@ -61,26 +59,140 @@ private AsyncAnvilChunkLoader() {
      * @return The NBT data, or null if no data is present for the chunk
      * @throws IOException If an error occurs while reading the chunk
      */
+    @Nullable
     public static NBTTagCompound read(AnvilChunkLoader loader, int x, int z) throws IOException {
         // Copied from AnvilChunkLoader.loadChunk, keep this up-to-date!
 
-        ChunkPos chunkpos = new ChunkPos(x, z);
-        NBTTagCompound nbttagcompound = ((AnvilChunkLoaderAccessor_Vanilla) loader).accessor$getChunksToSave().get(chunkpos);
+        // Sponge: Chunks waiting to be saved are stored in the save queue
+        //ChunkPos chunkpos = new ChunkPos(x, z);
+        //NBTTagCompound nbttagcompound = this.chunksToSave.get(chunkpos);
+        NBTTagCompound nbttagcompound = ((AnvilChunkLoaderBridge_Vanilla) loader).vanillaBridge$getSaveQueue().get(x, z);
 
         if (nbttagcompound == null) {
-            DataInputStream datainputstream = RegionFileCache.getChunkInputStream(((AnvilChunkLoaderAccessor_Vanilla) loader).accessor$getChunkSaveLocation(), x, z);
+            // Sponge start: Use the data if it was read ahead of time
+            nbttagcompound = ((AnvilChunkLoaderBridge_Vanilla) loader).vanillaBridge$getPrefetchCache().take(x, z);
+            if (nbttagcompound != null) {
+                ChunkPrefetcher.onHit();
+                return nbttagcompound;
+            }
 
-            if (datainputstream == null) {
-                return null;
+            ChunkPrefetcher.onMiss();
+
+            // The chunk was unloaded recently, it is already up to date
+            final byte[] data = ((AnvilChunkLoaderBridge_Vanilla) loader).vanillaBridge$getWarmCache().take(x, z);
+            if (data != null) {
+                return ChunkDecompressor.get().decodeDeflated(data);
             }
 
-            nbttagcompound = ((AnvilChunkLoaderAccessor_ChunkIO) loader).chunkIOAccessor$getFixer().process(FixTypes.CHUNK, CompressedStreamTools.read(datainputstream));
+            nbttagcompound = readStored(loader, x, z);
+            // Sponge end
         }
 
         // Sponge: Return NBT data and load chunk later
         return nbttagcompound;
     }
 
+    /**
+     * Reads the chunk from the storage of the loader and updates it to the
+     * current data version, ignoring the chunks waiting to be saved.
+     *
+     * @param loader The loader to use for loading the data
+     * @param x The x coordinate of the chunk
+     * @param z The z coordinate of the chunk
+     * @return The NBT data, or null if the chunk is not stored
+     * @throws IOException If an error occurs while reading the chunk
+     */
+    @Nullable
+    static NBTTagCompound readStored(AnvilChunkLoader loader, int x, int z) throws IOException {
+        NBTTagCompound nbttagcompound = null;
+
+        // Sponge start: Read from the storage of the loader
+        //DataInputStream datainputstream = RegionFileCache.getChunkInputStream(((AnvilChunkLoaderAccessor_Vanilla) loader).accessor$getChunkSaveLocation(), x, z);
+        nbttagcompound = ((AnvilChunkLoaderBridge_Vanilla) loader).vanillaBridge$getStorage().read(x, z);
+
+        if (nbttagcompound == null) {
+            return null;
+        }
+
+        //nbttagcompound = CompressedStreamTools.read(datainputstream);
+        // Sponge end
+
+        // Sponge start: The data fixer returns current chunks right away, only record the chunks it upgrades
+        final boolean outdated = WorldUpgrader.getDataVersion(nbttagcompound) < WorldUpgrader.DATA_VERSION;
+        final long start = System.nanoTime();
+        // Sponge end
+        nbttagcompound = ((AnvilChunkLoaderAccessor_ChunkIO) loader).chunkIOAccessor$getFixer().process(FixTypes.CHUNK, nbttagcompound);
+        // Sponge start
+        if (outdated) {
+            ChunkIOMetrics.DATAFIX.record(System.nanoTime() - start);
+        }
+        // Sponge end
+        return nbttagcompound;
+    }
+
+    /**
+     * Returns the position of the chunk within the storage of the loader.
+     * Chunks of the same region can be read in this order to access the
+     * disk sequentially.
+     *
+     * <p>This is safe to call asynchronously from a separate thread.</p>
+     *
+     * @param loader The loader the chunk belongs to
+     * @param x The x coordinate of the chunk
+     * @param z The z coordinate of the chunk
+     * @return The position, or 0 if the chunk is not stored
+     */
+    public static int getLocality(AnvilChunkLoader loader, int x, int z) {
+        return ((AnvilChunkLoaderBridge_Vanilla) loader).vanillaBridge$getStorage().getLocality(x, z);
+    }
+
+    /**
+     * Decodes the parts of the chunk data that are added to the world on
+     * the main thread, as far as possible without accessing the world. This
+     * resolves the blocks and positions of scheduled block updates.
+     *
+     * <p>This is safe to call asynchronously from a separate thread.</p>
+     *
+     * @param compound The loaded data of the chunk
+     * @return The prepared data for {@link #loadEntities(World, Chunk, PreparedChunkLoad)}
+     */
+    public static PreparedChunkLoad prepareLoad(NBTTagCompound compound) {
+        compound = compound.getCompoundTag("Level"); // Sponge: Method below expects Level nbt compound
+
+        // Split from AnvilChunkLoader.readChunkFromNBT, keep this up-to-date!
+        NBTTagList nbttaglist1 = compound.getTagList("Entities", 10);
+
+        NBTTagList nbttaglist2 = compound.getTagList("TileEntities", 10);
+        NBTTagCompound[] tileEntities = new NBTTagCompound[nbttaglist2.tagCount()];
+
+        for (int k1 = 0; k1 < tileEntities.length; ++k1) {
+            tileEntities[k1] = nbttaglist2.getCompoundTagAt(k1);
+        }
+
+        NBTTagList nbttaglist3 = compound.hasKey("TileTicks", 9) ? compound.getTagList("TileTicks", 10) : new NBTTagList();
+        final int ticks = nbttaglist3.tagCount();
+        BlockPos[] tickPositions = new BlockPos[ticks];
+        Block[] tickBlocks = new Block[ticks];
+        int[] tickDelays = new int[ticks];
+        int[] tickPriorities = new int[ticks];
+
+        for (int l1 = 0; l1 < ticks; ++l1) {
+            NBTTagCompound nbttagcompound3 = nbttaglist3.getCompoundTagAt(l1);
+
+            if (nbttagcompound3.hasKey("i", 8)) {
+                tickBlocks[l1] = Block.getBlockFromName(nbttagcompound3.getString("i"));
+            } else {
+                tickBlocks[l1] = Block.getBlockById(nbttagcompound3.getInteger("i"));
+            }
+
+            tickPositions[l1] = new BlockPos(nbttagcompound3.getInteger("x"), nbttagcompound3.getInteger("y"), nbttagcompound3.getInteger("z"));
+            tickDelays[l1] = nbttagcompound3.getInteger("t");
+            tickPriorities[l1] = nbttagcompound3.getInteger("p");
+        }
+
+        return new PreparedChunkLoad(nbttaglist1, tileEntities, tickPositions, tickBlocks, tickDelays, tickPriorities);
+    }
+
     /**
      * Finishes the loading of a chunk and adds stored entities and tile
      * entities.
@@ -90,13 +202,11 @@ public static NBTTagCompound read(AnvilChunkLoader loader, int x, int z) throws
      *
      * @param worldIn The world to load the chunk in
      * @param chunk The chunk to add the entities to
-     * @param compound The loaded data of the chunk
+     * @param prepared The prepared data of the chunk
      */
-    public static void loadEntities(World worldIn, Chunk chunk, NBTTagCompound compound) {
-        compound = compound.getCompoundTag("Level"); // Sponge: Method below expects Level nbt compound
-
+    public static void loadEntities(World worldIn, Chunk chunk, PreparedChunkLoad prepared) {
         // Copied from AnvilChunkLoader.readChunkFromNBT, keep this up-to-date!
-        NBTTagList nbttaglist1 = compound.getTagList("Entities", 10);
+        NBTTagList nbttaglist1 = prepared.entities;
 
         for (int j1 = 0; j1 < nbttaglist1.tagCount(); ++j1) {
             NBTTagCompound nbttagcompound1 = nbttaglist1.getCompoundTagAt(j1);
@@ -104,33 +214,17 @@ public static void loadEntities(World worldIn, Chunk chunk, NBTTagCompound compo
             chunk.setHasEntities(true);
         }
 
-        NBTTagList nbttaglist2 = compound.getTagList("TileEntities", 10);
-
-        for (int k1 = 0; k1 < nbttaglist2.tagCount(); ++k1) {
-            NBTTagCompound nbttagcompound2 = nbttaglist2.getCompoundTagAt(k1);
-            TileEntity tileentity = TileEntity.create(worldIn, nbttagcompound2);
+        for (int k1 = 0; k1 < prepared.tileEntities.length; ++k1) {
+            // Created through the factory, so mixins and plugins that hook into it still apply
+            TileEntity tileentity = TileEntity.create(worldIn, prepared.tileEntities[k1]);
 
             if (tileentity != null) {
                 chunk.addTileEntity(tileentity);
             }
         }
 
-        if (compound.hasKey("TileTicks", 9)) {
-            NBTTagList nbttaglist3 = compound.getTagList("TileTicks", 10);
-
-            for (int l1 = 0; l1 < nbttaglist3.tagCount(); ++l1) {
-                NBTTagCompound nbttagcompound3 = nbttaglist3.getCompoundTagAt(l1);
-                Block block;
-
-                if (nbttagcompound3.hasKey("i", 8)) {
-                    block = Block.getBlockFromName(nbttagcompound3.getString("i"));
-                } else {
-                    block = Block.getBlockById(nbttagcompound3.getInteger("i"));
-                }
-
-                worldIn.scheduleBlockUpdate(new BlockPos(nbttagcompound3.getInteger("x"), nbttagcompound3.getInteger("y"), nbttagcompound3.getInteger("z")),
-                        block, nbttagcompound3.getInteger("t"), nbttagcompound3.getInteger("p"));
-            }
+        for (int l1 = 0; l1 < prepared.tickPositions.length; ++l1) {
+            worldIn.scheduleBlockUpdate(prepared.tickPositions[l1], prepared.tickBlocks[l1], prepared.tickDelays[l1], prepared.tickPriorities[l1]);
         }
     }
 
@@ -0,0 +1,205 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.world.chunkio;
+
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.storage.IChunkLoader;
+import org.spongepowered.common.SpongeImpl;
+import org.spongepowered.common.world.WorldManager;
+import org.spongepowered.server.bridge.world.chunkio.AnvilChunkLoaderBridge_Vanilla;
+import org.spongepowered.server.mixin.chunkio.ChunkProviderServerAccessor_Vanilla;
+import org.spongepowered.server.mixin.core.world.chunk.storage.AnvilChunkLoaderAccessor_Vanilla;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.Nullable;
+
+/**
+ * Unloads the worlds queued in the {@link WorldManager} without writing
+ * their chunks on the main thread. The main thread only detaches the world
+ * and serializes its chunks. Compressing and writing the chunks, flushing
+ * the {@link ChunkStorage} and closing the region files of the world
+ * happens on a separate thread afterwards.
+ *
+ * <p>While the queued worlds are detached, the synchronous flushes that
+ * are normally part of unloading a world are skipped. This also avoids
+ * writing the pending chunks of all other worlds and closing their region
+ * files. A world that is loaded again before it was completely written
+ * waits for the previous unload to finish.</p>
+ */
+public final class AsyncWorldUnloader {
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "World Unload Thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final Map<File, CompletableFuture<Void>> unloading = new ConcurrentHashMap<>();
+
+    // Only accessed from the main thread
+    private static boolean detaching;
+
+    private AsyncWorldUnloader() {
+    }
+
+    /**
+     * Returns whether the queued worlds are being detached right now, so
+     * writing their chunks is left to the unload thread.
+     *
+     * @return True while the queued worlds are detached
+     */
+    public static boolean isDetaching() {
+        return detaching;
+    }
+
+    /**
+     * Unloads the worlds queued in the {@link WorldManager}. Replaces
+     * {@link WorldManager#unloadQueuedWorlds()} in the server tick.
+     */
+    public static void unloadQueuedWorlds() {
+        if (!ChunkIOSettings.ASYNC_WORLD_UNLOAD) {
+            WorldManager.unloadQueuedWorlds();
+            return;
+        }
+
+        final List<WorldServer> worlds = new ArrayList<>(WorldManager.getWorlds());
+        detaching = true;
+        try {
+            WorldManager.unloadQueuedWorlds();
+        } finally {
+            detaching = false;
+        }
+
+        final Collection<WorldServer> remaining = WorldManager.getWorlds();
+        if (remaining.size() == worlds.size()) {
+            return;
+        }
+
+        for (WorldServer world : worlds) {
+            if (!remaining.contains(world)) {
+                closeAsync(world);
+            }
+        }
+    }
+
+    private static void closeAsync(WorldServer world) {
+        final IChunkLoader loader = ((ChunkProviderServerAccessor_Vanilla) world.getChunkProvider()).chunkIOAccessor$getChunkLoader();
+        if (!(loader instanceof AnvilChunkLoaderBridge_Vanilla)) {
+            return;
+        }
+
+        final String name = world.getWorldInfo().getWorldName();
+        final File saveLocation = ((AnvilChunkLoaderAccessor_Vanilla) loader).accessor$getChunkSaveLocation();
+        final ChunkSaveQueue saveQueue = ((AnvilChunkLoaderBridge_Vanilla) loader).vanillaBridge$getSaveQueue();
+        final ChunkStorage storage = ((AnvilChunkLoaderBridge_Vanilla) loader).vanillaBridge$getStorage();
+
+        final long start = System.nanoTime();
+        final CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
+            saveQueue.writeAll();
+            try {
+                // Also flushes the storage and releases its open files
+                storage.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+
+        unloading.put(saveLocation, future);
+        future.whenComplete((result, e) -> {
+            unloading.remove(saveLocation, future);
+            if (e != null) {
+                SpongeImpl.getLogger().error("Failed to write world {} after unloading it", name, e);
+            } else {
+                SpongeImpl.getLogger().debug("Finished writing world {} in {} ms", name, (System.nanoTime() - start) / 1_000_000);
+            }
+        });
+    }
+
+    /**
+     * Returns the future that completes once the chunks of an unloaded
+     * world were written and its files were closed.
+     *
+     * @param saveLocation The directory the chunks of the world are saved in
+     * @return The future, or null if the world isn't being unloaded
+     */
+    @Nullable
+    public static CompletableFuture<Void> getUnloadFuture(File saveLocation) {
+        return unloading.get(saveLocation);
+    }
+
+    /**
+     * Returns the number of unloaded worlds that are still being written.
+     *
+     * @return The number of pending unloads
+     */
+    public static int getPendingCount() {
+        return unloading.size();
+    }
+
+    /**
+     * Waits until the world in the save location was completely written,
+     * if it is being unloaded right now.
+     *
+     * @param saveLocation The directory the chunks of the world are saved in
+     */
+    public static void awaitUnload(File saveLocation) {
+        final CompletableFuture<Void> future = unloading.get(saveLocation);
+        if (future != null) {
+            SpongeImpl.getLogger().info("Waiting for {} to finish unloading", saveLocation);
+            await(future);
+        }
+    }
+
+    /**
+     * Waits until all unloaded worlds were completely written, e.g. before
+     * the server is stopped.
+     */
+    public static void awaitAll() {
+        for (CompletableFuture<Void> future : new ArrayList<>(unloading.values())) {
+            await(future);
+        }
+    }
+
+    private static void await(CompletableFuture<Void> future) {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            // Already logged
+        }
+    }
+
+}
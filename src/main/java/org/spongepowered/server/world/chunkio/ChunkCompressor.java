@@ -0,0 +1,103 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.world.chunkio;
+
+import it.unimi.dsi.fastutil.io.FastByteArrayOutputStream;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Serializes and compresses chunk data like it is stored in region files,
+ * with a {@link Deflater} and buffers that are reused by each thread. The
+ * counterpart of {@link ChunkDecompressor}.
+ */
+final class ChunkCompressor {
+
+    private static final int INITIAL_SIZE = 64 * 1024;
+    // Buffers that grew larger than this for a huge chunk are not kept
+    private static final int MAX_RETAINED_SIZE = 4 * 1024 * 1024;
+
+    private static final ThreadLocal<ChunkCompressor> instances = ThreadLocal.withInitial(ChunkCompressor::new);
+
+    private final Deflater deflater = new Deflater(ChunkIOSettings.SAVE_COMPRESSION_LEVEL);
+    private FastByteArrayOutputStream stream = new FastByteArrayOutputStream(INITIAL_SIZE * 4);
+    private DataOutputStream dataStream = new DataOutputStream(this.stream);
+    private byte[] output = new byte[INITIAL_SIZE];
+
+    private ChunkCompressor() {
+    }
+
+    static ChunkCompressor get() {
+        return instances.get();
+    }
+
+    /**
+     * Serializes and compresses the chunk data.
+     *
+     * @param compound The chunk data
+     * @return The compressed data, exactly as long as needed
+     * @throws IOException If the data could not be serialized
+     */
+    byte[] encode(NBTTagCompound compound) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            this.stream.reset();
+            CompressedStreamTools.write(compound, this.dataStream);
+            this.dataStream.flush();
+            return Arrays.copyOf(this.output, deflate());
+        } finally {
+            ChunkIOMetrics.COMPRESS.record(System.nanoTime() - start);
+            if (this.stream.array.length > MAX_RETAINED_SIZE) {
+                this.stream = new FastByteArrayOutputStream(INITIAL_SIZE * 4);
+                this.dataStream = new DataOutputStream(this.stream);
+            }
+            if (this.output.length > MAX_RETAINED_SIZE) {
+                this.output = new byte[INITIAL_SIZE];
+            }
+        }
+    }
+
+    private int deflate() {
+        final Deflater deflater = this.deflater;
+        deflater.reset();
+        deflater.setInput(this.stream.array, 0, this.stream.length);
+        deflater.finish();
+
+        int size = 0;
+        while (!deflater.finished()) {
+            if (size == this.output.length) {
+                this.output = Arrays.copyOf(this.output, this.output.length * 2);
+            }
+            size += deflater.deflate(this.output, size, this.output.length - size);
+        }
+        return size;
+    }
+
+}
@@ -0,0 +1,211 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.world.chunkio;
+
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import javax.annotation.Nullable;
+
+/**
+ * Decompresses chunk data from region files with an {@link Inflater} and
+ * buffers that are reused by each thread, instead of allocating a new
+ * inflater and stream chain for every chunk.
+ *
+ * <p>Use {@link #get()} to obtain the instance of the current thread, copy
+ * the compressed data into {@link #input(int)} and call
+ * {@link #decode(int, int)}.</p>
+ */
+final class ChunkDecompressor {
+
+    private static final int GZIP_VERSION = 1;
+    private static final int DEFLATE_VERSION = 2;
+
+    private static final int INITIAL_SIZE = 64 * 1024;
+    // Buffers that grew larger than this for a huge chunk are not kept
+    private static final int MAX_RETAINED_SIZE = 4 * 1024 * 1024;
+
+    private static final ThreadLocal<ChunkDecompressor> instances = ThreadLocal.withInitial(ChunkDecompressor::new);
+
+    private final Inflater inflater = new Inflater();
+    private final BufferInputStream stream = new BufferInputStream();
+    private final DataInputStream dataStream = new DataInputStream(this.stream);
+
+    private byte[] input = new byte[INITIAL_SIZE];
+    private byte[] output = new byte[INITIAL_SIZE * 4];
+
+    private ChunkDecompressor() {
+    }
+
+    static ChunkDecompressor get() {
+        return instances.get();
+    }
+
+    /**
+     * Returns the input buffer with room for at least the given number of
+     * compressed bytes.
+     *
+     * @param length The length of the compressed data
+     * @return The input buffer
+     */
+    byte[] input(int length) {
+        if (this.input.length < length) {
+            this.input = new byte[Math.max(length, this.input.length * 2)];
+        }
+        return this.input;
+    }
+
+    /**
+     * Decompresses and reads the chunk data from the start of the
+     * {@link #input(int) input buffer}.
+     *
+     * @param length The length of the compressed data
+     * @param version The compression type used by the region file
+     * @return The chunk data, or null if the compression type is unknown
+     * @throws IOException If the data is corrupted
+     */
+    @Nullable
+    NBTTagCompound decode(int length, int version) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            if (version == DEFLATE_VERSION) {
+                this.stream.reset(this.output, inflate(length));
+                return CompressedStreamTools.read(this.dataStream);
+            } else if (version == GZIP_VERSION) {
+                // Not written since beta, not worth pooling
+                return CompressedStreamTools.read(new DataInputStream(new BufferedInputStream(
+                        new GZIPInputStream(new ByteArrayInputStream(this.input, 0, length)))));
+            }
+            return null;
+        } finally {
+            ChunkIOMetrics.DECOMPRESS.record(System.nanoTime() - start);
+            this.stream.reset(null, 0);
+            if (this.input.length > MAX_RETAINED_SIZE) {
+                this.input = new byte[INITIAL_SIZE];
+            }
+            if (this.output.length > MAX_RETAINED_SIZE) {
+                this.output = new byte[INITIAL_SIZE * 4];
+            }
+        }
+    }
+
+    /**
+     * Decompresses and reads chunk data that was compressed like it is
+     * written to region files.
+     *
+     * @param data The compressed data
+     * @return The chunk data
+     * @throws IOException If the data is corrupted
+     */
+    NBTTagCompound decodeDeflated(byte[] data) throws IOException {
+        System.arraycopy(data, 0, input(data.length), 0, data.length);
+        return decode(data.length, DEFLATE_VERSION);
+    }
+
+    private int inflate(int length) throws IOException {
+        final Inflater inflater = this.inflater;
+        inflater.reset();
+        inflater.setInput(this.input, 0, length);
+
+        int size = 0;
+        try {
+            while (!inflater.finished()) {
+                if (size == this.output.length) {
+                    final byte[] output = new byte[this.output.length * 2];
+                    System.arraycopy(this.output, 0, output, 0, size);
+                    this.output = output;
+                }
+
+                final int n = inflater.inflate(this.output, size, this.output.length - size);
+                if (n == 0) {
+                    if (inflater.needsDictionary()) {
+                        throw new ZipException("Chunk data requires a preset dictionary");
+                    } else if (inflater.needsInput()) {
+                        throw new EOFException("Unexpected end of chunk data");
+                    }
+                }
+                size += n;
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        }
+        return size;
+    }
+
+    private static final class BufferInputStream extends InputStream {
+
+        @Nullable private byte[] buffer;
+        private int position;
+        private int limit;
+
+        void reset(@Nullable byte[] buffer, int limit) {
+            this.buffer = buffer;
+            this.position = 0;
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() {
+            return this.position < this.limit ? this.buffer[this.position++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (this.position >= this.limit) {
+                return -1;
+            }
+
+            len = Math.min(len, this.limit - this.position);
+            System.arraycopy(this.buffer, this.position, b, off, len);
+            this.position += len;
+            return len;
+        }
+
+        @Override
+        public long skip(long n) {
+            final int skipped = (int) Math.max(0, Math.min(n, this.limit - this.position));
+            this.position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return this.limit - this.position;
+        }
+
+    }
+
+}
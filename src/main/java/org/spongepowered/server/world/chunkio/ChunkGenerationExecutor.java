@@ -0,0 +1,194 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.world.chunkio;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.gen.ChunkProviderServer;
+import net.minecraft.world.gen.IChunkGenerator;
+import org.spongepowered.common.SpongeImpl;
+import org.spongepowered.server.bridge.world.chunkio.ChunkIOProviderBridge_Vanilla;
+import org.spongepowered.server.mixin.chunkio.ChunkProviderServerAccessor_Vanilla;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import javax.annotation.Nullable;
+
+/**
+ * Generates the terrain of chunks on a separate thread. Only inserting the
+ * chunk into the world and populating it is done on the main thread.
+ *
+ * <p>The vanilla chunk generators and their structure generators are not
+ * thread-safe. Each world therefore has its own generator lock, see
+ * {@link #getGeneratorLock}, which is also held by the main thread whenever
+ * it calls into the chunk generator of that world. Spawning mobs only tries
+ * to acquire it and skips the spawn attempt if the world is generating a
+ * chunk right now. The biome generation layers share the global
+ * {@code IntCache}, so they are guarded by the global {@link #BIOME_LOCK},
+ * which is only held while the biome layers are evaluated.</p>
+ */
+public final class ChunkGenerationExecutor {
+
+    /**
+     * Guards the evaluation of the biome generation layers of all worlds.
+     */
+    public static final ReentrantLock BIOME_LOCK = new ReentrantLock();
+
+    // A single thread is enough, chunks of one world are generated one at a time anyway
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Chunk Generation Thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Main thread only
+    private static final Map<WorldServer, Long2ObjectMap<GenerationTask>> pending = new IdentityHashMap<>();
+    private static final Queue<GenerationTask> finished = new ConcurrentLinkedQueue<>();
+
+    private ChunkGenerationExecutor() {
+    }
+
+    /**
+     * Returns the lock that guards the chunk generator of the world.
+     *
+     * @param provider The chunk provider of the world
+     * @return The generator lock
+     */
+    public static ReentrantLock getGeneratorLock(ChunkProviderServer provider) {
+        return ((ChunkIOProviderBridge_Vanilla) provider).vanillaBridge$getGeneratorLock();
+    }
+
+    /**
+     * Queues the chunk to be generated. The callback is called on the main
+     * thread once the chunk was generated, populated and added to the world.
+     *
+     * <p>This must be called on the main thread.</p>
+     *
+     * @param provider The chunk provider of the world
+     * @param x The x coordinate of the chunk
+     * @param z The z coordinate of the chunk
+     * @param callback The callback to call with the generated chunk, or null
+     *     if the generation failed
+     */
+    public static void queueGeneration(ChunkProviderServer provider, int x, int z, Consumer<Chunk> callback) {
+        final WorldServer world = ((ChunkProviderServerAccessor_Vanilla) provider).chunkIOAccessor$getWorld();
+        final Long2ObjectMap<GenerationTask> tasks = pending.computeIfAbsent(world, w -> new Long2ObjectOpenHashMap<>());
+        final long key = ChunkPos.asLong(x, z);
+
+        GenerationTask task = tasks.get(key);
+        if (task == null) {
+            task = new GenerationTask(provider, x, z);
+            tasks.put(key, task);
+            executor.execute(task);
+        }
+
+        task.callbacks.add(callback);
+    }
+
+    /**
+     * Adds all chunks that finished generating to their world. Must be called
+     * on the main thread.
+     */
+    public static void tick() {
+        GenerationTask task;
+        while ((task = finished.poll()) != null) {
+            final WorldServer world = ((ChunkProviderServerAccessor_Vanilla) task.provider).chunkIOAccessor$getWorld();
+            final Long2ObjectMap<GenerationTask> tasks = pending.get(world);
+            if (tasks != null) {
+                tasks.remove(ChunkPos.asLong(task.x, task.z));
+                if (tasks.isEmpty()) {
+                    pending.remove(world);
+                }
+            }
+
+            task.finish();
+        }
+    }
+
+    private static final class GenerationTask implements Runnable {
+
+        final ChunkProviderServer provider;
+        final int x;
+        final int z;
+        final List<Consumer<Chunk>> callbacks = new ArrayList<>(1); // Main thread only
+
+        @Nullable private volatile Chunk chunk;
+
+        GenerationTask(ChunkProviderServer provider, int x, int z) {
+            this.provider = provider;
+            this.x = x;
+            this.z = z;
+        }
+
+        @Override
+        public void run() {
+            final IChunkGenerator generator = ((ChunkProviderServerAccessor_Vanilla) this.provider).chunkIOAccessor$getChunkGenerator();
+            final ReentrantLock lock = getGeneratorLock(this.provider);
+            lock.lock();
+            try {
+                this.chunk = generator.generateChunk(this.x, this.z);
+            } catch (Throwable t) {
+                SpongeImpl.getLogger().error("Could not generate chunk in {} @ ({}, {})",
+                        ((ChunkProviderServerAccessor_Vanilla) this.provider).chunkIOAccessor$getWorld(), this.x, this.z, t);
+            } finally {
+                lock.unlock();
+            }
+
+            finished.add(this);
+        }
+
+        void finish() {
+            // Copied from ChunkProviderServer.provideChunk, keep this up-to-date!
+            final ChunkProviderServerAccessor_Vanilla accessor = (ChunkProviderServerAccessor_Vanilla) this.provider;
+
+            // The chunk might have been loaded or generated synchronously in the meantime
+            Chunk chunk = this.provider.getLoadedChunk(this.x, this.z);
+            if (chunk == null && this.chunk != null) {
+                chunk = this.chunk;
+                accessor.chunkIOAccessor$getLoadedChunks().put(ChunkPos.asLong(this.x, this.z), chunk);
+                chunk.onLoad();
+                chunk.populate(this.provider, accessor.chunkIOAccessor$getChunkGenerator());
+            }
+
+            for (Consumer<Chunk> callback : this.callbacks) {
+                callback.accept(chunk);
+            }
+        }
+
+    }
+
+}
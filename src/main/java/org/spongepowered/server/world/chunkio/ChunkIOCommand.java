@@ -0,0 +1,267 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.world.chunkio;
+
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.storage.IChunkLoader;
+import net.minecraftforge.common.chunkio.ChunkIOExecutor;
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.command.CommandException;
+import org.spongepowered.api.command.CommandResult;
+import org.spongepowered.api.command.CommandSource;
+import org.spongepowered.api.command.args.GenericArguments;
+import org.spongepowered.api.command.spec.CommandSpec;
+import org.spongepowered.api.text.Text;
+import org.spongepowered.api.text.format.TextColors;
+import org.spongepowered.api.world.storage.WorldProperties;
+import org.spongepowered.common.SpongeImpl;
+import org.spongepowered.common.world.WorldManager;
+import org.spongepowered.server.bridge.world.chunkio.AnvilChunkLoaderBridge_Vanilla;
+import org.spongepowered.server.mixin.chunkio.ChunkProviderServerAccessor_Vanilla;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@code /chunkio} command, which shows the state of the asynchronous
+ * chunk I/O and controls the {@link ChunkPregenerator}.
+ */
+public final class ChunkIOCommand {
+
+    // Keeps the number of chunks in the area below Integer.MAX_VALUE
+    private static final int MAX_PREGEN_RADIUS = 10000;
+
+    private ChunkIOCommand() {
+    }
+
+    public static CommandSpec create() {
+        return CommandSpec.builder()
+                .permission("sponge.command.chunkio")
+                .description(Text.of("Shows the state of the asynchronous chunk I/O"))
+                .child(CommandSpec.builder()
+                        .permission("sponge.command.chunkio.metrics")
+                        .description(Text.of("Shows chunk I/O queue sizes and load latencies"))
+                        .child(CommandSpec.builder()
+                                .permission("sponge.command.chunkio.metrics.reset")
+                                .description(Text.of("Resets the chunk I/O latency histograms"))
+                                .executor((src, args) -> {
+                                    ChunkIOMetrics.reset();
+                                    src.sendMessage(Text.of(TextColors.GREEN, "Reset chunk I/O metrics"));
+                                    return CommandResult.success();
+                                })
+                                .build(), "reset")
+                        .executor((src, args) -> {
+                            sendMetrics(src);
+                            return CommandResult.success();
+                        })
+                        .build(), "metrics")
+                .child(CommandSpec.builder()
+                        .permission("sponge.command.chunkio.stalls")
+                        .description(Text.of("Shows the sampled callers of synchronous chunk loads"))
+                        .executor((src, args) -> {
+                            final List<Map.Entry<String, Long>> sources = ChunkIOMetrics.getStallSources(10);
+                            if (sources.isEmpty()) {
+                                src.sendMessage(Text.of(TextColors.GRAY, "No synchronous chunk loads were sampled"));
+                            }
+                            for (Map.Entry<String, Long> source : sources) {
+                                src.sendMessage(Text.of(TextColors.YELLOW, source.getValue(), "x ", TextColors.WHITE, source.getKey()));
+                            }
+                            return CommandResult.success();
+                        })
+                        .build(), "stalls")
+                .child(CommandSpec.builder()
+                        .permission("sponge.command.chunkio.players")
+                        .description(Text.of("Shows the effective view distance and chunk send rate of each player"))
+                        .executor((src, args) -> {
+                            sendPlayers(src);
+                            return CommandResult.success();
+                        })
+                        .build(), "players")
+                .child(CommandSpec.builder()
+                        .permission("sponge.command.chunkio.pregen")
+                        .description(Text.of("Pregenerates the chunks around a position in the background"))
+                        .child(CommandSpec.builder()
+                                .description(Text.of("Starts pregenerating a square area of chunks"))
+                                .arguments(GenericArguments.world(Text.of("world")), GenericArguments.integer(Text.of("radius")),
+                                        GenericArguments.optional(GenericArguments.seq(
+                                                GenericArguments.integer(Text.of("chunkX")), GenericArguments.integer(Text.of("chunkZ")))))
+                                .executor((src, args) -> {
+                                    final WorldServer world = getWorld(args.<WorldProperties>getOne("world").get());
+                                    final int radius = args.<Integer>getOne("radius").get();
+                                    if (radius < 0 || radius > MAX_PREGEN_RADIUS) {
+                                        throw new CommandException(Text.of("The radius must be between 0 and ", MAX_PREGEN_RADIUS));
+                                    }
+
+                                    final int x;
+                                    final int z;
+                                    if (args.hasAny("chunkX")) {
+                                        x = args.<Integer>getOne("chunkX").get();
+                                        z = args.<Integer>getOne("chunkZ").get();
+                                    } else {
+                                        final BlockPos spawn = world.getSpawnPoint();
+                                        x = spawn.getX() >> 4;
+                                        z = spawn.getZ() >> 4;
+                                    }
+
+                                    final ChunkPregenerator task = ChunkPregenerator.start(world, x, z, radius);
+                                    src.sendMessage(Text.of(TextColors.GREEN, "Pregenerating ", task.getTotal(), " chunks around chunk ", x, ", ", z,
+                                            " in ", task.getWorldName()));
+                                    return CommandResult.success();
+                                })
+                                .build(), "start")
+                        .child(CommandSpec.builder()
+                                .description(Text.of("Stops pregenerating a world"))
+                                .arguments(GenericArguments.world(Text.of("world")))
+                                .executor((src, args) -> {
+                                    final ChunkPregenerator task = ChunkPregenerator.stop(getWorld(args.<WorldProperties>getOne("world").get()));
+                                    if (task == null) {
+                                        throw new CommandException(Text.of("The world is not being pregenerated"));
+                                    }
+                                    src.sendMessage(Text.of(TextColors.GREEN, "Stopped pregenerating ", task.getWorldName()));
+                                    return CommandResult.success();
+                                })
+                                .build(), "stop")
+                        .executor((src, args) -> {
+                            if (ChunkPregenerator.getTasks().isEmpty()) {
+                                src.sendMessage(Text.of(TextColors.GRAY, "No worlds are being pregenerated"));
+                            }
+                            for (ChunkPregenerator task : ChunkPregenerator.getTasks()) {
+                                src.sendMessage(Text.of(TextColors.YELLOW, task.getWorldName(), ": ", TextColors.WHITE, task.getCompleted(), " / ",
+                                        task.getTotal(), String.format(" (%.1f%%)", task.getProgress() * 100), TextColors.GOLD, ", ETA ",
+                                        TextColors.WHITE, task.formatEta()));
+                            }
+                            return CommandResult.success();
+                        })
+                        .build(), "pregen")
+                .executor((src, args) -> {
+                    sendMetrics(src);
+                    return CommandResult.success();
+                })
+                .build();
+    }
+
+    private static WorldServer getWorld(WorldProperties properties) throws CommandException {
+        return (WorldServer) Sponge.getServer().getWorld(properties.getUniqueId())
+                .orElseThrow(() -> new CommandException(Text.of("The world ", properties.getWorldName(), " is not loaded")));
+    }
+
+    private static void sendPlayers(CommandSource src) {
+        if (ChunkIOSettings.DYNAMIC_VIEW_DISTANCE) {
+            src.sendMessage(Text.of(TextColors.GOLD, "View distance reduction: ", TextColors.WHITE, DynamicViewDistance.getReduction()));
+        }
+
+        final Collection<EntityPlayerMP> players = SpongeImpl.getServer().getPlayerList().getPlayers();
+        if (players.isEmpty()) {
+            src.sendMessage(Text.of(TextColors.GRAY, "No players online"));
+            return;
+        }
+
+        src.sendMessage(Text.of(TextColors.GOLD, "Players (view distance / configured, chunks per second, chunks waiting):"));
+        for (EntityPlayerMP player : players) {
+            final WorldServer world = player.getServerWorld();
+            src.sendMessage(Text.of("  ", TextColors.YELLOW, player.getName(), ": ", TextColors.WHITE,
+                    DynamicViewDistance.getViewDistance(world), " / ", DynamicViewDistance.getConfiguredViewDistance(world), ", ",
+                    ChunkSendLimiter.getSendRate(player), ", ", ChunkSendLimiter.getDeferredCount(player)));
+        }
+    }
+
+    private static void sendMetrics(CommandSource src) {
+        src.sendMessage(Text.of(TextColors.GOLD, "Chunk loads (queued / loading / finishing):"));
+        final Map<World, ChunkIOMetrics.QueueStats> stats = ChunkIOExecutor.getQueueStats();
+        if (stats.isEmpty()) {
+            src.sendMessage(Text.of(TextColors.GRAY, "  No chunks queued"));
+        }
+        for (ChunkIOMetrics.QueueStats worldStats : stats.values()) {
+            src.sendMessage(Text.of("  ", TextColors.YELLOW, ((org.spongepowered.api.world.World) worldStats.getWorld()).getName(), ": ",
+                    TextColors.WHITE, worldStats.get(ChunkIOMetrics.LoadState.QUEUED), " / ",
+                    worldStats.get(ChunkIOMetrics.LoadState.LOADING), " / ",
+                    worldStats.get(ChunkIOMetrics.LoadState.FINISHING)));
+        }
+
+        src.sendMessage(Text.of(TextColors.GOLD, "Chunk I/O threads: ", TextColors.WHITE, ChunkIOExecutor.getPoolSize(),
+                TextColors.GOLD, " (", TextColors.WHITE, ChunkIOSettings.MIN_IO_THREADS, TextColors.GOLD, " - ",
+                TextColors.WHITE, ChunkIOSettings.MAX_IO_THREADS, TextColors.GOLD, ")"));
+        src.sendMessage(Text.of(TextColors.GOLD, "Chunk saves pending: ", TextColors.WHITE, ChunkSaveExecutor.getPendingCount(),
+                TextColors.GOLD, ", written: ", TextColors.WHITE, ChunkSaveExecutor.getWrittenCount()));
+        src.sendMessage(Text.of(TextColors.GOLD, "World unloads in progress: ", TextColors.WHITE, AsyncWorldUnloader.getPendingCount()));
+        src.sendMessage(Text.of(TextColors.GOLD, "Synchronous loads: ", TextColors.WHITE, ChunkIOMetrics.getSyncLoads(),
+                TextColors.GOLD, " (", TextColors.WHITE, ChunkIOMetrics.SYNC_WAIT.getCount(), TextColors.GOLD, " waited for a worker)"));
+        src.sendMessage(Text.of(TextColors.GOLD, "Prefetch hit rate: ", TextColors.WHITE, String.format("%.1f%%", ChunkPrefetcher.getHitRate() * 100),
+                TextColors.GOLD, " (", TextColors.WHITE, ChunkPrefetcher.getWasted(), TextColors.GOLD, " of ",
+                TextColors.WHITE, ChunkPrefetcher.getPrefetched(), TextColors.GOLD, " prefetched chunks unused)"));
+        src.sendMessage(Text.of(TextColors.GOLD, "Unloaded chunk cache hit rate: ", TextColors.WHITE,
+                String.format("%.1f%%", WarmChunkCache.getHitRate() * 100)));
+        src.sendMessage(Text.of(TextColors.GOLD, "Region file cache hit rate: ", TextColors.WHITE,
+                String.format("%.1f%%", RegionFileHandleCache.getHitRate() * 100), TextColors.GOLD, " (", TextColors.WHITE,
+                RegionFileHandleCache.getOpenCount(), TextColors.GOLD, " open, ", TextColors.WHITE, RegionFileHandleCache.getEvictions(),
+                TextColors.GOLD, " evicted)"));
+        src.sendMessage(Text.of(TextColors.GOLD, "Chunk packet cache hit rate: ", TextColors.WHITE,
+                String.format("%.1f%%", ChunkPacketCache.getHitRate() * 100)));
+
+        if (ChunkIOSettings.INCREMENTAL_CHUNK_GC) {
+            src.sendMessage(Text.of(TextColors.GOLD, "Chunk GC (sweep progress, reclaimed last sweep / total):"));
+            for (WorldServer world : WorldManager.getWorlds()) {
+                final IncrementalChunkGC gc = IncrementalChunkGC.get(world);
+                src.sendMessage(Text.of("  ", TextColors.YELLOW, ((org.spongepowered.api.world.World) world).getName(), ": ",
+                        TextColors.WHITE, gc.getSweepSize() > 0 ? gc.getProgress() + " / " + gc.getSweepSize() : "idle", ", ",
+                        gc.getLastSweepReclaimed(), " / ", gc.getReclaimed(), TextColors.GOLD, " (", TextColors.WHITE, gc.getSweeps(),
+                        TextColors.GOLD, " sweeps)"));
+            }
+        }
+
+        src.sendMessage(Text.of(TextColors.GOLD, "Chunk storage:"));
+        for (WorldServer world : WorldManager.getWorlds()) {
+            final IChunkLoader loader = ((ChunkProviderServerAccessor_Vanilla) world.getChunkProvider()).chunkIOAccessor$getChunkLoader();
+            if (!(loader instanceof AnvilChunkLoaderBridge_Vanilla)) {
+                continue;
+            }
+
+            final ChunkStorage storage = ((AnvilChunkLoaderBridge_Vanilla) loader).vanillaBridge$getStorage();
+            if (storage instanceof LogChunkStorage) {
+                final LogChunkStorage log = (LogChunkStorage) storage;
+                final long live = log.getLiveBytes();
+                src.sendMessage(Text.of("  ", TextColors.YELLOW, ((org.spongepowered.api.world.World) world).getName(), ": ",
+                        TextColors.WHITE, storage.getFormat(), TextColors.GOLD, " (", TextColors.WHITE, log.getTotalBytes() / (1024 * 1024),
+                        TextColors.GOLD, " MB, space amplification ", TextColors.WHITE,
+                        String.format("%.2f", live > 0 ? (double) log.getTotalBytes() / live : 1.0), TextColors.GOLD, ")"));
+            } else {
+                src.sendMessage(Text.of("  ", TextColors.YELLOW, ((org.spongepowered.api.world.World) world).getName(), ": ",
+                        TextColors.WHITE, storage.getFormat()));
+            }
+        }
+
+        src.sendMessage(Text.of(TextColors.GOLD, "Latencies in ms (count, mean, p50, p99, max):"));
+        for (LatencyHistogram histogram : ChunkIOMetrics.getHistograms()) {
+            src.sendMessage(Text.of("  ", TextColors.YELLOW, histogram.getName(), ": ", TextColors.WHITE, String.format("%d, %.2f, %.2f, %.2f, %.2f",
+                    histogram.getCount(), histogram.getMean() / 1000, histogram.getPercentile(0.5) / 1000.0,
+                    histogram.getPercentile(0.99) / 1000.0, histogram.getMax() / 1000.0)));
+        }
+    }
+
+}
@@ -0,0 +1,219 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.world.chunkio;
+
+import net.minecraft.world.World;
+
+import java.util.AbstractMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Live metrics of the asynchronous chunk I/O. Durations are recorded in
+ * {@link LatencyHistogram}s for each stage of a chunk load:
+ *
+ * <ol>
+ *     <li>{@link #QUEUE_WAIT}: Waiting for a chunk I/O thread</li>
+ *     <li>{@link #READ}: Reading the compressed data from the region file</li>
+ *     <li>{@link #DECOMPRESS}: Decompressing and parsing the NBT data</li>
+ *     <li>{@link #DATAFIX}: Updating the data to the current version</li>
+ *     <li>{@link #DESERIALIZE}: Creating the chunk from the NBT data</li>
+ *     <li>{@link #FINALIZE}: Adding the chunk to the world on the main thread</li>
+ * </ol>
+ *
+ * <p>{@link #LATENCY} covers a queued load from the request until its
+ * callbacks were called. {@link #SYNC_WAIT} and {@link #SYNC_INLINE} cover
+ * the time the main thread was stalled by a synchronous load, either waiting
+ * for a worker that already started loading the chunk or loading the chunk
+ * itself. {@link #COMPRESS} covers serializing and compressing a chunk when
+ * it is queued to be saved. The current queue sizes of each world are
+ * available from {@code ChunkIOExecutor.getQueueStats()}.</p>
+ */
+public final class ChunkIOMetrics {
+
+    public static final LatencyHistogram QUEUE_WAIT = new LatencyHistogram("queue wait");
+    public static final LatencyHistogram READ = new LatencyHistogram("read");
+    public static final LatencyHistogram DECOMPRESS = new LatencyHistogram("decompress");
+    public static final LatencyHistogram DATAFIX = new LatencyHistogram("datafix");
+    public static final LatencyHistogram DESERIALIZE = new LatencyHistogram("deserialize");
+    public static final LatencyHistogram FINALIZE = new LatencyHistogram("finalize");
+    public static final LatencyHistogram LATENCY = new LatencyHistogram("request to callback");
+    public static final LatencyHistogram SYNC_WAIT = new LatencyHistogram("sync load, waiting for worker");
+    public static final LatencyHistogram SYNC_INLINE = new LatencyHistogram("sync load, on main thread");
+    public static final LatencyHistogram COMPRESS = new LatencyHistogram("save compress");
+
+    private static final LatencyHistogram[] HISTOGRAMS = {QUEUE_WAIT, READ, DECOMPRESS, DATAFIX, DESERIALIZE, FINALIZE, LATENCY, SYNC_WAIT, SYNC_INLINE, COMPRESS};
+
+    private static final int STALL_STACK_DEPTH = 8;
+    private static final int MAX_STALL_SOURCES = 256;
+    private static final String OTHER_STALL_SOURCES = "(other)";
+
+    private static final AtomicLong stallCounter = new AtomicLong();
+    private static final Map<String, LongAdder> stallSources = new ConcurrentHashMap<>();
+
+    private ChunkIOMetrics() {
+    }
+
+    /**
+     * Returns all histograms in the order of the load stages.
+     *
+     * @return The histograms
+     */
+    public static LatencyHistogram[] getHistograms() {
+        return HISTOGRAMS.clone();
+    }
+
+    /**
+     * Records a chunk that had to be loaded synchronously on the main thread.
+     * The calling stack is sampled for every
+     * {@link ChunkIOSettings#STALL_SAMPLE_RATE}th stall.
+     *
+     * @param histogram Either {@link #SYNC_WAIT} or {@link #SYNC_INLINE}
+     * @param nanos The time the main thread was stalled
+     */
+    public static void onSyncLoad(LatencyHistogram histogram, long nanos) {
+        histogram.record(nanos);
+        if (ChunkIOSettings.STALL_SAMPLE_RATE > 0 && stallCounter.incrementAndGet() % ChunkIOSettings.STALL_SAMPLE_RATE == 0) {
+            sampleStack();
+        }
+    }
+
+    private static void sampleStack() {
+        final StackTraceElement[] stack = new Throwable().getStackTrace();
+        final StringBuilder key = new StringBuilder();
+        int frames = 0;
+        for (StackTraceElement element : stack) {
+            if (frames == 0 && isChunkLoading(element.getClassName())) {
+                continue; // Skip the chunk loading itself until we find the caller
+            }
+
+            if (frames > 0) {
+                key.append(" <- ");
+            }
+            key.append(element.getClassName()).append('.').append(element.getMethodName()).append(':').append(element.getLineNumber());
+            if (++frames == STALL_STACK_DEPTH) {
+                break;
+            }
+        }
+
+        LongAdder count = stallSources.get(key.toString());
+        if (count == null) {
+            // Limit the memory used by unusual callers
+            count = stallSources.size() < MAX_STALL_SOURCES ? stallSources.computeIfAbsent(key.toString(), k -> new LongAdder())
+                    : stallSources.computeIfAbsent(OTHER_STALL_SOURCES, k -> new LongAdder());
+        }
+        count.increment();
+    }
+
+    private static boolean isChunkLoading(String className) {
+        return className.startsWith("net.minecraftforge.common.chunkio.")
+                || className.startsWith("org.spongepowered.server.world.chunkio.")
+                || className.equals("net.minecraft.world.gen.ChunkProviderServer");
+    }
+
+    /**
+     * Returns the number of chunks that were loaded synchronously on the
+     * main thread instead of through the async queue.
+     *
+     * @return The number of synchronous loads
+     */
+    public static long getSyncLoads() {
+        return SYNC_WAIT.getCount() + SYNC_INLINE.getCount();
+    }
+
+    /**
+     * Returns the sampled callers that caused synchronous chunk loads, with
+     * the number of samples, most frequent first.
+     *
+     * @param limit The maximum number of callers to return
+     * @return The callers with their number of samples
+     */
+    public static List<Map.Entry<String, Long>> getStallSources(int limit) {
+        return stallSources.entrySet().stream()
+                .map(entry -> new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue().sum()))
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Resets all histograms and counters.
+     */
+    public static void reset() {
+        for (LatencyHistogram histogram : HISTOGRAMS) {
+            histogram.reset();
+        }
+        stallSources.clear();
+    }
+
+    /**
+     * The state of a chunk load in the queue.
+     */
+    public enum LoadState {
+        /**
+         * Waiting for a chunk I/O thread.
+         */
+        QUEUED,
+        /**
+         * Being read by a chunk I/O thread.
+         */
+        LOADING,
+        /**
+         * Loaded and waiting to be added to the world on the main thread.
+         */
+        FINISHING
+    }
+
+    /**
+     * The number of chunk loads of a single world in each {@link LoadState}.
+     */
+    public static final class QueueStats {
+
+        private final World world;
+        private final int[] counts = new int[LoadState.values().length];
+
+        public QueueStats(World world) {
+            this.world = world;
+        }
+
+        public World getWorld() {
+            return this.world;
+        }
+
+        public void increment(LoadState state) {
+            this.counts[state.ordinal()]++;
+        }
+
+        public int get(LoadState state) {
+            return this.counts[state.ordinal()];
+        }
+
+    }
+
+}
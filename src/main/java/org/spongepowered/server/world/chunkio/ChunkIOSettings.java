@@ -0,0 +1,270 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.world.chunkio;
+
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+/**
+ * Settings for the asynchronous chunk I/O. These are read once from system
+ * properties prefixed with {@code sponge.chunkio.}, e.g.
+ * {@code -Dsponge.chunkio.region-reader=mapped}.
+ */
+public final class ChunkIOSettings {
+
+    private static final String PREFIX = "sponge.chunkio.";
+
+    /**
+     * The reader used for region files on the asynchronous load path.
+     */
+    public static final RegionReader REGION_READER = getEnum("region-reader", RegionReader.CLASSIC);
+
+    /**
+     * Whether chunks requested through {@code World.loadChunkAsync} with
+     * generation enabled are generated on a separate thread, see
+     * {@link ChunkGenerationExecutor}.
+     */
+    public static final boolean ASYNC_GENERATION = getBoolean("async-generation", false);
+
+    /**
+     * The maximum number of chunks waiting to be written, across all worlds.
+     * Threads saving more chunks write them synchronously until the backlog
+     * is below this limit again.
+     */
+    public static final int MAX_PENDING_SAVES = getInt("max-pending-saves", 8192);
+
+    /**
+     * The deflate level chunks are compressed with when they are queued to
+     * be saved, from 0 (none) to 9 (smallest). Lower levels spend less time
+     * on the saving thread but produce larger files. The default matches
+     * vanilla.
+     */
+    public static final int SAVE_COMPRESSION_LEVEL = Math.max(Deflater.DEFAULT_COMPRESSION,
+            Math.min(Deflater.BEST_COMPRESSION, getInt("save-compression-level", Deflater.DEFAULT_COMPRESSION)));
+
+    /**
+     * Whether the chunk GC checks the loaded chunks of a world over several
+     * ticks, see {@link IncrementalChunkGC}. Otherwise all loaded chunks are
+     * checked in a single tick, like in SpongeCommon.
+     */
+    public static final boolean INCREMENTAL_CHUNK_GC = getBoolean("incremental-chunk-gc", true);
+
+    /**
+     * The maximum number of chunks the {@link IncrementalChunkGC} checks per
+     * world and tick.
+     */
+    public static final int CHUNK_GC_CHUNKS_PER_TICK = Math.max(1, getInt("chunk-gc-chunks-per-tick", 1024));
+
+    /**
+     * The time in microseconds the {@link IncrementalChunkGC} may spend per
+     * world and tick.
+     */
+    public static final int CHUNK_GC_BUDGET_MICROS = getInt("chunk-gc-budget-us", 500);
+
+    /**
+     * The time in milliseconds the main thread may spend per tick on
+     * finishing chunks loaded asynchronously. Remaining chunks are finished
+     * in the following ticks, closest to players first. A value of 0
+     * disables the limit.
+     */
+    public static final int FINALIZE_BUDGET_MILLIS = getInt("finalize-budget-ms", 10);
+
+    /**
+     * Whether chunks ahead of fast moving players are read before they are
+     * requested, see {@link ChunkPrefetcher}.
+     */
+    public static final boolean PREFETCH = getBoolean("prefetch", true);
+
+    /**
+     * How far ahead the movement of players is extrapolated, in ticks.
+     */
+    public static final int PREFETCH_LOOKAHEAD_TICKS = getInt("prefetch-lookahead-ticks", 100);
+
+    /**
+     * The maximum number of prefetched chunks kept per world.
+     */
+    public static final int PREFETCH_CACHE_SIZE = getInt("prefetch-cache-size", 128);
+
+    /**
+     * The time in seconds after which unused prefetched chunks are discarded.
+     */
+    public static final int PREFETCH_CACHE_EXPIRY_SECONDS = getInt("prefetch-cache-expiry", 15);
+
+    /**
+     * The minimum number of chunk I/O threads.
+     */
+    public static final int MIN_IO_THREADS = Math.max(1, getInt("min-io-threads", 1));
+
+    /**
+     * The maximum number of chunk I/O threads the pool grows to when chunk
+     * loads wait too long in the queue.
+     */
+    public static final int MAX_IO_THREADS = Math.max(MIN_IO_THREADS, getInt("max-io-threads", Math.max(2, Runtime.getRuntime().availableProcessors())));
+
+    /**
+     * The average time in milliseconds a chunk load may wait in the queue
+     * before another chunk I/O thread is started.
+     */
+    public static final int TARGET_QUEUE_WAIT_MILLIS = getInt("target-queue-wait-ms", 50);
+
+    /**
+     * The maximum number of chunks the {@link ChunkPregenerator} requests
+     * per tick.
+     */
+    public static final int PREGEN_CHUNKS_PER_TICK = Math.max(1, getInt("pregen-chunks-per-tick", 8));
+
+    /**
+     * The average milliseconds per tick above which the
+     * {@link ChunkPregenerator} pauses until the server has caught up.
+     */
+    public static final int PREGEN_MAX_MSPT = getInt("pregen-max-mspt", 45);
+
+    /**
+     * Every how many synchronous chunk loads the calling stack is sampled,
+     * see {@link ChunkIOMetrics#getStallSources(int)}. A value of 0 disables
+     * the sampling.
+     */
+    public static final int STALL_SAMPLE_RATE = getInt("stall-sample-rate", 20);
+
+    /**
+     * The maximum number of region files kept open per world, see
+     * {@link RegionFileHandleCache}.
+     */
+    public static final int REGION_CACHE_SIZE = Math.max(1, getInt("region-cache-size", 128));
+
+    /**
+     * The maximum size in megabytes of the compressed data of recently
+     * unloaded chunks kept per world, see {@link WarmChunkCache}. A value of
+     * 0 disables the cache.
+     */
+    public static final int WARM_CACHE_SIZE_MB = getInt("warm-cache-size-mb", 16);
+
+    /**
+     * The time in seconds after which recently unloaded chunks are discarded
+     * from the {@link WarmChunkCache}.
+     */
+    public static final int WARM_CACHE_EXPIRY_SECONDS = getInt("warm-cache-expiry", 300);
+
+    /**
+     * The maximum size in megabytes of the chunk data packets kept per world
+     * for players that start watching an unchanged chunk, see
+     * {@link ChunkPacketCache}. Changes that don't mark the chunk as modified
+     * may be sent up to 30 seconds late. A value of 0 disables the cache.
+     */
+    public static final int PACKET_CACHE_SIZE_MB = getInt("packet-cache-size-mb", 16);
+
+    /**
+     * The maximum number of full chunks sent to a single player per tick,
+     * see {@link ChunkSendLimiter}. Additional chunks are sent in the
+     * following ticks, nearest first.
+     */
+    public static final int PLAYER_CHUNKS_PER_TICK = Math.max(1, getInt("player-chunks-per-tick", 10));
+
+    /**
+     * Whether the view distance of all worlds is reduced while the server is
+     * overloaded, see {@link DynamicViewDistance}.
+     */
+    public static final boolean DYNAMIC_VIEW_DISTANCE = getBoolean("dynamic-view-distance", true);
+
+    /**
+     * The view distance the {@link DynamicViewDistance} never goes below.
+     */
+    public static final int MIN_VIEW_DISTANCE = Math.max(3, getInt("min-view-distance", 4));
+
+    /**
+     * The average milliseconds per tick above which the
+     * {@link DynamicViewDistance} reduces the view distance.
+     */
+    public static final int VIEW_DISTANCE_MAX_MSPT = getInt("view-distance-max-mspt", 45);
+
+    /**
+     * The number of queued chunk loads above which the
+     * {@link DynamicViewDistance} reduces the view distance.
+     */
+    public static final int VIEW_DISTANCE_MAX_BACKLOG = getInt("view-distance-max-backlog", 1024);
+
+    /**
+     * Whether the chunks of unloaded worlds are written on a separate
+     * thread, see {@link AsyncWorldUnloader}.
+     */
+    public static final boolean ASYNC_WORLD_UNLOAD = getBoolean("async-world-unload", true);
+
+    /**
+     * The storage format used for worlds that don't store any chunks yet.
+     * Existing worlds keep the format they are stored in until they are
+     * converted with the {@code --convert-storage} command line option.
+     */
+    public static final StorageFormat STORAGE = getEnum("storage", StorageFormat.ANVIL);
+
+    public enum RegionReader {
+        /**
+         * Reads through the vanilla {@link net.minecraft.world.chunk.storage.RegionFile},
+         * which serializes all reads of one region file.
+         */
+        CLASSIC,
+        /**
+         * Reads from a memory mapped copy of the region file without any
+         * locks, see {@link MappedRegionFile}.
+         */
+        MAPPED
+    }
+
+    public enum StorageFormat {
+        /**
+         * The vanilla region files, see {@link AnvilChunkStorage}.
+         */
+        ANVIL,
+        /**
+         * Append-only log segments, see {@link LogChunkStorage}.
+         */
+        LOG
+    }
+
+    private ChunkIOSettings() {
+    }
+
+    private static boolean getBoolean(String name, boolean def) {
+        final String value = System.getProperty(PREFIX + name);
+        return value != null ? Boolean.parseBoolean(value) : def;
+    }
+
+    private static int getInt(String name, int def) {
+        return Integer.getInteger(PREFIX + name, def);
+    }
+
+    private static <E extends Enum<E>> E getEnum(String name, E def) {
+        final String value = System.getProperty(PREFIX + name);
+        if (value == null) {
+            return def;
+        }
+
+        try {
+            return Enum.valueOf(def.getDeclaringClass(), value.toUpperCase(Locale.ENGLISH).replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            return def;
+        }
+    }
+
+}
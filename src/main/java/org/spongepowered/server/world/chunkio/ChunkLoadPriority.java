@@ -0,0 +1,158 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.world.chunkio;
+
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.MathHelper;
+
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Calculates the load priority of chunks that players are waiting for,
+ * see {@link net.minecraftforge.common.chunkio.ChunkIOExecutor#updatePriority}.
+ *
+ * <p>The position and view direction of each player are only calculated
+ * once per tick. The priority of a waiting chunk only needs to be updated
+ * when one of its players moved to another chunk, or every
+ * {@link #UPDATE_INTERVAL} ticks to follow players that are turning
+ * around.</p>
+ *
+ * <p>All methods must be called from the main thread.</p>
+ */
+public final class ChunkLoadPriority {
+
+    private static final int UPDATE_INTERVAL = 10; // Ticks
+
+    private static final Map<EntityPlayerMP, PlayerView> views = new WeakHashMap<>();
+
+    private ChunkLoadPriority() {
+    }
+
+    private static PlayerView getView(EntityPlayerMP player, int tick) {
+        final PlayerView view = views.computeIfAbsent(player, p -> new PlayerView());
+        view.update(player, tick);
+        return view;
+    }
+
+    /**
+     * Checks if the priority of a chunk needs to be calculated again.
+     *
+     * @param players The players waiting for the chunk
+     * @param lastUpdate The tick the priority was last calculated
+     * @param tick The current tick
+     * @return True if the priority may have changed
+     */
+    public static boolean needsUpdate(List<EntityPlayerMP> players, int lastUpdate, int tick) {
+        if (tick - lastUpdate >= UPDATE_INTERVAL) {
+            return true;
+        }
+
+        for (EntityPlayerMP player : players) {
+            if (getView(player, tick).chunkChanged > lastUpdate) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Calculates the squared distance in chunks to the nearest player,
+     * weighted by the view direction of the player. Chunks behind a player
+     * are treated as if they were up to twice as far away.
+     *
+     * @param pos The position of the chunk
+     * @param players The players waiting for the chunk
+     * @param tick The current tick
+     * @return The priority, lower values are loaded first
+     */
+    public static double getPriority(ChunkPos pos, List<EntityPlayerMP> players, int tick) {
+        final double centerX = (pos.x << 4) + 8;
+        final double centerZ = (pos.z << 4) + 8;
+
+        double priority = Double.MAX_VALUE;
+        for (EntityPlayerMP player : players) {
+            final PlayerView view = getView(player, tick);
+            final double dx = centerX - view.x;
+            final double dz = centerZ - view.z;
+            final double distanceSq = dx * dx + dz * dz;
+            double weight = 1.0;
+
+            // Chunks directly around the player are always loaded first, and
+            // the direction is unknown if the player looks straight up or down
+            if (distanceSq > 256.0 && view.lookLengthSq > 1.0E-4) {
+                final double cos = (dx * view.lookX + dz * view.lookZ) / Math.sqrt(distanceSq * view.lookLengthSq);
+                weight = 1.5 - 0.5 * cos;
+            }
+
+            priority = Math.min(priority, distanceSq / 256.0 * weight);
+        }
+
+        return priority;
+    }
+
+    private static final class PlayerView {
+
+        int tick = Integer.MIN_VALUE;
+        double x;
+        double z;
+        // Horizontal part of the look vector
+        double lookX;
+        double lookZ;
+        double lookLengthSq;
+        int chunkX;
+        int chunkZ;
+        int chunkChanged = Integer.MIN_VALUE;
+
+        void update(EntityPlayerMP player, int tick) {
+            if (this.tick == tick) {
+                return;
+            }
+
+            this.tick = tick;
+            this.x = player.posX;
+            this.z = player.posZ;
+
+            // Same as Entity.getLookVec(), without allocating a vector for every chunk
+            final float yaw = -player.rotationYawHead * 0.017453292F - (float) Math.PI;
+            final float pitch = -MathHelper.cos(-player.rotationPitch * 0.017453292F);
+            this.lookX = MathHelper.sin(yaw) * pitch;
+            this.lookZ = MathHelper.cos(yaw) * pitch;
+            this.lookLengthSq = this.lookX * this.lookX + this.lookZ * this.lookZ;
+
+            final int chunkX = MathHelper.floor(this.x) >> 4;
+            final int chunkZ = MathHelper.floor(this.z) >> 4;
+            if (this.chunkChanged == Integer.MIN_VALUE || chunkX != this.chunkX || chunkZ != this.chunkZ) {
+                this.chunkX = chunkX;
+                this.chunkZ = chunkZ;
+                this.chunkChanged = tick;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.world.chunkio;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import net.minecraft.network.play.server.SPacketChunkData;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.Chunk;
+import org.spongepowered.server.bridge.world.chunkio.ChunkIOWorldBridge_Vanilla;
+import org.spongepowered.server.mixin.chunkio.SPacketChunkDataAccessor_ChunkIO;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The full chunk data packets of a world that were sent to players
+ * recently, so additional players that start watching an unchanged chunk
+ * get the same packet instead of serializing the chunk again. This makes
+ * many players joining or respawning in the same area a lot cheaper.
+ *
+ * <p>Packets are only used while the chunk is unchanged. They are discarded
+ * once a block in the chunk changes, even without notifying the players,
+ * the chunk is marked as modified (e.g. by a tile entity that changed its
+ * data), or no player watches the chunk anymore. Changes that don't mark the chunk as modified, like light
+ * updates or tile entities that don't call {@code markDirty}, may be
+ * missing from the packet until it expires after {@link #EXPIRY_SECONDS}.
+ * The least recently used packets are evicted when the cache grows larger
+ * than {@link ChunkIOSettings#PACKET_CACHE_SIZE_MB}.</p>
+ *
+ * <p>The cache is only accessed from the main thread. The packets are
+ * immutable once created, so the network threads may encode the same
+ * packet for several players at the same time.</p>
+ */
+public final class ChunkPacketCache {
+
+    // The sections that are sent when a player starts watching a chunk
+    private static final int ALL_SECTIONS = 65535;
+    // Changes that don't mark the chunk as modified are only picked up after this
+    private static final int EXPIRY_SECONDS = 30;
+    private static final long EXPIRY_NANOS = TimeUnit.SECONDS.toNanos(EXPIRY_SECONDS);
+    private static final long MAX_BYTES = ChunkIOSettings.PACKET_CACHE_SIZE_MB * 1024L * 1024L;
+
+    private static long hits;
+    private static long misses;
+
+    private final Long2ObjectLinkedOpenHashMap<Entry> entries = new Long2ObjectLinkedOpenHashMap<>();
+    private long bytes;
+
+    /**
+     * Returns the packet cache of the world.
+     *
+     * @param world The world
+     * @return The packet cache
+     */
+    public static ChunkPacketCache get(WorldServer world) {
+        return ((ChunkIOWorldBridge_Vanilla) world).vanillaBridge$getPacketCache();
+    }
+
+    /**
+     * Returns the chunk data packet for the given sections of the chunk.
+     * Packets for all sections are reused while the chunk is unchanged.
+     *
+     * @param chunk The chunk
+     * @param sections The bit mask of the sections to send
+     * @return The chunk data packet
+     */
+    public SPacketChunkData getPacket(Chunk chunk, int sections) {
+        if (sections != ALL_SECTIONS || MAX_BYTES <= 0) {
+            return new SPacketChunkData(chunk, sections);
+        }
+
+        final long key = ChunkPos.asLong(chunk.x, chunk.z);
+        final long now = System.nanoTime();
+        final Entry entry = this.entries.getAndMoveToLast(key);
+        if (entry != null) {
+            if (entry.chunk == chunk && entry.expiry - now > 0) {
+                hits++;
+                return entry.packet;
+            }
+            remove(key);
+        }
+
+        misses++;
+        final SPacketChunkData packet = new SPacketChunkData(chunk, sections);
+        final int size = ((SPacketChunkDataAccessor_ChunkIO) packet).chunkIOAccessor$getBuffer().length;
+        if (size <= MAX_BYTES) {
+            this.entries.putAndMoveToLast(key, new Entry(chunk, packet, size, now + EXPIRY_NANOS));
+            this.bytes += size;
+            while (this.bytes > MAX_BYTES) {
+                this.bytes -= this.entries.removeFirst().size;
+            }
+        }
+        return packet;
+    }
+
+    /**
+     * Discards the packet of the chunk because it changed or is no longer
+     * watched by any player.
+     *
+     * @param x The x coordinate of the chunk
+     * @param z The z coordinate of the chunk
+     */
+    public void invalidate(int x, int z) {
+        remove(ChunkPos.asLong(x, z));
+    }
+
+    private void remove(long key) {
+        final Entry entry = this.entries.remove(key);
+        if (entry != null) {
+            this.bytes -= entry.size;
+        }
+    }
+
+    /**
+     * Returns the fraction of full chunk packets that were served from a
+     * packet cache.
+     *
+     * @return The cache hit rate, between 0 and 1
+     */
+    public static double getHitRate() {
+        final long total = hits + misses;
+        return total > 0 ? (double) hits / total : 0;
+    }
+
+    private static final class Entry {
+
+        final Chunk chunk;
+        final SPacketChunkData packet;
+        final int size;
+        final long expiry;
+
+        Entry(Chunk chunk, SPacketChunkData packet, int size, long expiry) {
+            this.chunk = chunk;
+            this.packet = packet;
+            this.size = size;
+            this.expiry = expiry;
+        }
+
+    }
+
+}
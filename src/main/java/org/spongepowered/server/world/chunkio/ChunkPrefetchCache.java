@@ -0,0 +1,154 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.world.chunkio;
+
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.math.ChunkPos;
+
+import javax.annotation.Nullable;
+
+/**
+ * Chunk data of a single chunk loader that was read ahead of time by the
+ * {@link ChunkPrefetcher}. Entries are only used once and expire after a
+ * short time.
+ *
+ * <p>Saving a chunk invalidates its entry, including a read of the chunk
+ * that is still in progress, so the cache never returns outdated data.</p>
+ */
+public final class ChunkPrefetchCache {
+
+    // Insertion order is also the expiry order
+    private final Long2ObjectLinkedOpenHashMap<Entry> entries = new Long2ObjectLinkedOpenHashMap<>();
+    // Reads in progress, mapped to a token that identifies the read. Tokens are never 0, the default return value
+    private final Long2IntMap reading = new Long2IntOpenHashMap();
+    private int nextToken = 1;
+
+    /**
+     * Marks the chunk as being read, unless it is already cached or being
+     * read.
+     *
+     * @param x The x coordinate of the chunk
+     * @param z The z coordinate of the chunk
+     * @return The token to pass to {@link #complete}, or 0 if the chunk
+     *     doesn't need to be read
+     */
+    synchronized int start(int x, int z) {
+        final long key = ChunkPos.asLong(x, z);
+        if (this.entries.containsKey(key) || this.reading.containsKey(key)) {
+            return 0;
+        }
+
+        final int token = this.nextToken++;
+        if (this.nextToken == 0) {
+            this.nextToken = 1;
+        }
+        this.reading.put(key, token);
+        return token;
+    }
+
+    /**
+     * Stores the data read for the chunk, unless the chunk was saved since
+     * the read was started.
+     */
+    synchronized void complete(int x, int z, int token, @Nullable NBTTagCompound compound) {
+        final long key = ChunkPos.asLong(x, z);
+        if (this.reading.get(key) != token) {
+            return; // Invalidated in the meantime
+        }
+        this.reading.remove(key);
+        if (compound == null) {
+            return;
+        }
+
+        this.entries.putAndMoveToLast(key, new Entry(compound, System.nanoTime() + ChunkPrefetcher.CACHE_EXPIRY_NANOS));
+        while (this.entries.size() > ChunkIOSettings.PREFETCH_CACHE_SIZE) {
+            this.entries.removeFirst();
+            ChunkPrefetcher.onWasted();
+        }
+    }
+
+    /**
+     * Removes and returns the prefetched data of the chunk.
+     *
+     * <p>This is safe to call asynchronously from a separate thread.</p>
+     *
+     * @param x The x coordinate of the chunk
+     * @param z The z coordinate of the chunk
+     * @return The chunk data, or null if the chunk wasn't prefetched
+     */
+    @Nullable
+    public synchronized NBTTagCompound take(int x, int z) {
+        final Entry entry = this.entries.remove(ChunkPos.asLong(x, z));
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiry - System.nanoTime() < 0) {
+            ChunkPrefetcher.onWasted();
+            return null;
+        }
+        return entry.compound;
+    }
+
+    /**
+     * Discards the prefetched data of the chunk because it was saved.
+     *
+     * @param x The x coordinate of the chunk
+     * @param z The z coordinate of the chunk
+     */
+    public synchronized void invalidate(int x, int z) {
+        final long key = ChunkPos.asLong(x, z);
+        this.reading.remove(key);
+        if (this.entries.remove(key) != null) {
+            ChunkPrefetcher.onWasted();
+        }
+    }
+
+    /**
+     * Removes all expired entries.
+     */
+    synchronized void purge() {
+        final long now = System.nanoTime();
+        while (!this.entries.isEmpty() && this.entries.get(this.entries.firstLongKey()).expiry - now < 0) {
+            this.entries.removeFirst();
+            ChunkPrefetcher.onWasted();
+        }
+    }
+
+    private static final class Entry {
+
+        final NBTTagCompound compound;
+        final long expiry;
+
+        Entry(NBTTagCompound compound, long expiry) {
+            this.compound = compound;
+            this.expiry = expiry;
+        }
+
+    }
+
+}
@@ -0,0 +1,263 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.world.chunkio;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.AnvilChunkLoader;
+import net.minecraft.world.chunk.storage.IChunkLoader;
+import net.minecraft.world.gen.ChunkProviderServer;
+import org.spongepowered.common.world.WorldManager;
+import org.spongepowered.server.bridge.world.chunkio.AnvilChunkLoaderBridge_Vanilla;
+import org.spongepowered.server.mixin.chunkio.ChunkProviderServerAccessor_Vanilla;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads the chunks ahead of fast moving players before they are requested
+ * by the {@link net.minecraft.server.management.PlayerChunkMap}. The
+ * movement of each player is extrapolated and the chunks that would enter
+ * their view along the way are read into the {@link ChunkPrefetchCache} of
+ * the world, which is consulted by {@link AsyncAnvilChunkLoader#read}.
+ *
+ * <p>Only chunks that exist in a region file are prefetched, the
+ * prefetcher never generates chunks.</p>
+ */
+public final class ChunkPrefetcher {
+
+    static final long CACHE_EXPIRY_NANOS = TimeUnit.SECONDS.toNanos(ChunkIOSettings.PREFETCH_CACHE_EXPIRY_SECONDS);
+
+    // Plan prefetches every few ticks, players don't change their direction that quickly
+    private static final int INTERVAL = 5;
+    // Players moving slower than this (in blocks per tick) are served well enough by the regular loader
+    private static final double MIN_SPEED = 0.6;
+    private static final int MAX_QUEUED = 64;
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Chunk Prefetch Thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final AtomicInteger queued = new AtomicInteger();
+    private static int ticks;
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong wasted = new AtomicLong();
+    private static final AtomicLong prefetched = new AtomicLong();
+
+    private ChunkPrefetcher() {
+    }
+
+    /**
+     * Queues the chunks ahead of moving players to be read. Must be called
+     * on the main thread.
+     *
+     * @param server The server
+     */
+    public static void tick(MinecraftServer server) {
+        if (!ChunkIOSettings.PREFETCH || ++ticks < INTERVAL) {
+            return;
+        }
+        ticks = 0;
+
+        final int viewDistance = server.getPlayerList().getViewDistance();
+        for (WorldServer world : WorldManager.getWorlds()) {
+            final ChunkProviderServer provider = world.getChunkProvider();
+            final IChunkLoader loader = ((ChunkProviderServerAccessor_Vanilla) provider).chunkIOAccessor$getChunkLoader();
+            if (!(loader instanceof AnvilChunkLoader)) {
+                continue;
+            }
+
+            final ChunkPrefetchCache cache = ((AnvilChunkLoaderBridge_Vanilla) loader).vanillaBridge$getPrefetchCache();
+            cache.purge();
+
+            for (EntityPlayer player : world.playerEntities) {
+                if (!prefetch(provider, (AnvilChunkLoader) loader, cache, player, viewDistance)) {
+                    break; // Out of budget, but still purge the caches of the remaining worlds
+                }
+            }
+        }
+    }
+
+    private static boolean prefetch(ChunkProviderServer provider, AnvilChunkLoader loader, ChunkPrefetchCache cache, EntityPlayer player,
+            int viewDistance) {
+        // Boats and horses move the player
+        final Entity entity = player.getLowestRidingEntity();
+        final double dx = entity.posX - entity.lastTickPosX;
+        final double dz = entity.posZ - entity.lastTickPosZ;
+        final double speed = Math.sqrt(dx * dx + dz * dz);
+        if (speed < MIN_SPEED) {
+            return true;
+        }
+
+        // Move the view area along the extrapolated path one chunk at a time
+        // and prefetch the chunks entering it, closest to the player first
+        final int steps = Math.min(MathHelper.ceil(speed * ChunkIOSettings.PREFETCH_LOOKAHEAD_TICKS / 16), viewDistance * 2);
+        final double stepX = dx / speed * 16;
+        final double stepZ = dz / speed * 16;
+
+        int lastX = MathHelper.floor(entity.posX) >> 4;
+        int lastZ = MathHelper.floor(entity.posZ) >> 4;
+        for (int i = 1; i <= steps; i++) {
+            final int centerX = MathHelper.floor(entity.posX + stepX * i) >> 4;
+            final int centerZ = MathHelper.floor(entity.posZ + stepZ * i) >> 4;
+            if (centerX == lastX && centerZ == lastZ) {
+                continue;
+            }
+
+            for (int x = centerX - viewDistance; x <= centerX + viewDistance; x++) {
+                for (int z = centerZ - viewDistance; z <= centerZ + viewDistance; z++) {
+                    if (Math.abs(x - lastX) <= viewDistance && Math.abs(z - lastZ) <= viewDistance) {
+                        continue; // Already in view at the previous step
+                    }
+                    if (!prefetch(provider, loader, cache, x, z)) {
+                        return false;
+                    }
+                }
+            }
+
+            lastX = centerX;
+            lastZ = centerZ;
+        }
+
+        return true;
+    }
+
+    private static boolean prefetch(ChunkProviderServer provider, AnvilChunkLoader loader, ChunkPrefetchCache cache, int x, int z) {
+        final Long2ObjectMap<Chunk> loadedChunks = ((ChunkProviderServerAccessor_Vanilla) provider).chunkIOAccessor$getLoadedChunks();
+        if (loadedChunks.containsKey(ChunkPos.asLong(x, z)) || ((AnvilChunkLoaderBridge_Vanilla) loader).vanillaBridge$getSaveQueue().contains(x, z)) {
+            return true;
+        }
+
+        if (queued.get() >= MAX_QUEUED) {
+            return false;
+        }
+
+        // Chunks that are already cached or being read are skipped without touching the disk
+        final int token = cache.start(x, z);
+        if (token == 0) {
+            return true;
+        }
+
+        final ChunkStorage storage = ((AnvilChunkLoaderBridge_Vanilla) loader).vanillaBridge$getStorage();
+        queued.incrementAndGet();
+        executor.execute(() -> {
+            NBTTagCompound compound = null;
+            try {
+                // Don't create region files for chunks that were never generated
+                if (storage.exists(x, z)) {
+                    compound = AsyncAnvilChunkLoader.readStored(loader, x, z);
+                }
+            } catch (IOException | RuntimeException e) {
+                // The regular load will report the error if the chunk is requested
+            } finally {
+                cache.complete(x, z, token, compound);
+                queued.decrementAndGet();
+            }
+            if (compound != null) {
+                prefetched.incrementAndGet();
+            }
+        });
+        return true;
+    }
+
+    static void onHit() {
+        hits.incrementAndGet();
+    }
+
+    static void onMiss() {
+        misses.incrementAndGet();
+    }
+
+    static void onWasted() {
+        wasted.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of chunk loads that were served from the prefetch
+     * cache.
+     *
+     * @return The number of cache hits
+     */
+    public static long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of chunk loads that had to be read from the region
+     * files.
+     *
+     * @return The number of cache misses
+     */
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of prefetched chunks that expired, were evicted or
+     * invalidated before they were used.
+     *
+     * @return The number of wasted prefetches
+     */
+    public static long getWasted() {
+        return wasted.get();
+    }
+
+    /**
+     * Returns the number of chunks that were read ahead of time.
+     *
+     * @return The number of prefetched chunks
+     */
+    public static long getPrefetched() {
+        return prefetched.get();
+    }
+
+    /**
+     * Returns the fraction of chunk loads read from disk that were served
+     * from the prefetch cache.
+     *
+     * @return The cache hit rate, between 0 and 1
+     */
+    public static double getHitRate() {
+        final long hits = getHits();
+        final long total = hits + getMisses();
+        return total > 0 ? (double) hits / total : 0;
+    }
+
+}
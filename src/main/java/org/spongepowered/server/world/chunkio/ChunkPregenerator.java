@@ -0,0 +1,425 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.world.chunkio;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.gen.ChunkProviderServer;
+import org.spongepowered.common.SpongeImpl;
+import org.spongepowered.common.world.WorldManager;
+import org.spongepowered.server.bridge.world.chunkio.ChunkIOProviderBridge_Vanilla;
+import org.spongepowered.server.mixin.chunkio.ChunkProviderServerAccessor_Vanilla;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * Loads or generates all chunks in a square area of a world in the
+ * background, through the {@link net.minecraftforge.common.chunkio.ChunkIOExecutor}
+ * and the {@link ChunkGenerationExecutor}.
+ *
+ * <p>At most {@link ChunkIOSettings#PREGEN_CHUNKS_PER_TICK} chunks are
+ * requested per tick, and no chunks are requested while the server is
+ * slower than {@link ChunkIOSettings#PREGEN_MAX_MSPT}. Chunks are unloaded
+ * again as soon as all their neighbours are done, so they could be
+ * populated. The progress is saved to the world directory regularly and
+ * resumed when the world is loaded again.</p>
+ */
+public final class ChunkPregenerator {
+
+    private static final String STATE_FILE = "sponge_pregen.dat";
+    private static final int SAVE_INTERVAL = 30 * 20; // Ticks
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    // Main thread only
+    private static final Map<WorldServer, ChunkPregenerator> tasks = new IdentityHashMap<>();
+    private static final Set<WorldServer> checkedWorlds = Collections.newSetFromMap(new WeakHashMap<>());
+
+    private final WorldServer world;
+    private final int centerX;
+    private final int centerZ;
+    private final int radius;
+    private final int size;
+    private final long total;
+
+    // Chunks in the area are numbered row by row
+    private final BitSet completed = new BitSet();
+    // All chunks below this index are completed
+    private long watermark;
+    private long next;
+    private long completedCount;
+    private int inFlight;
+    private boolean stopped;
+
+    // Chunks loaded by this task that wait for their neighbours to be completed
+    private final LongSet loaded = new LongOpenHashSet();
+
+    private int ticksSinceSave;
+    private final long started = System.nanoTime();
+    private final long completedAtStart;
+    private long lastReport = System.nanoTime();
+
+    private ChunkPregenerator(WorldServer world, int centerX, int centerZ, int radius, long watermark) {
+        this.world = world;
+        this.centerX = centerX;
+        this.centerZ = centerZ;
+        this.radius = radius;
+        this.size = radius * 2 + 1;
+        this.total = (long) this.size * this.size;
+        this.watermark = watermark;
+        this.next = watermark;
+        this.completedCount = watermark;
+        this.completedAtStart = watermark;
+    }
+
+    /**
+     * Starts pregenerating the square area around the center, replacing
+     * a running task for the world.
+     *
+     * @param world The world to pregenerate
+     * @param centerX The x coordinate of the center chunk
+     * @param centerZ The z coordinate of the center chunk
+     * @param radius The radius of the area in chunks
+     * @return The new task
+     */
+    public static ChunkPregenerator start(WorldServer world, int centerX, int centerZ, int radius) {
+        final ChunkPregenerator previous = tasks.remove(world);
+        if (previous != null) {
+            previous.stopped = true;
+            previous.unloadAll();
+        }
+
+        final ChunkPregenerator task = new ChunkPregenerator(world, centerX, centerZ, radius, 0);
+        tasks.put(world, task);
+        task.save();
+        SpongeImpl.getLogger().info("Started pregenerating {} chunks around chunk {}, {} in {}", task.total, centerX, centerZ, task.getWorldName());
+        return task;
+    }
+
+    /**
+     * Stops pregenerating the world and discards the saved progress.
+     *
+     * @param world The world
+     * @return The stopped task, or null if the world wasn't pregenerated
+     */
+    @Nullable
+    public static ChunkPregenerator stop(WorldServer world) {
+        final ChunkPregenerator task = tasks.remove(world);
+        if (task != null) {
+            task.stopped = true;
+            task.unloadAll();
+            task.getStateFile().delete();
+        }
+        return task;
+    }
+
+    public static Collection<ChunkPregenerator> getTasks() {
+        return Collections.unmodifiableCollection(tasks.values());
+    }
+
+    /**
+     * Requests the next chunks of all running tasks. Must be called on the
+     * main thread.
+     *
+     * @param server The server
+     */
+    public static void tick(MinecraftServer server) {
+        final Collection<WorldServer> worlds = WorldManager.getWorlds();
+        for (WorldServer world : worlds) {
+            if (checkedWorlds.add(world)) {
+                resume(world);
+            }
+        }
+
+        // Tasks of unloaded worlds are resumed once the world is loaded again
+        for (Iterator<ChunkPregenerator> it = tasks.values().iterator(); it.hasNext(); ) {
+            final ChunkPregenerator task = it.next();
+            if (!worlds.contains(task.world)) {
+                it.remove();
+                task.stopped = true;
+                task.save();
+                SpongeImpl.getLogger().info("Paused pregenerating {}, the world was unloaded", task.getWorldName());
+            }
+        }
+
+        if (tasks.isEmpty()) {
+            return;
+        }
+
+        // Back off while the server is lagging
+        final double mspt = MathHelper.average(server.tickTimeArray) / 1_000_000;
+        if (mspt >= ChunkIOSettings.PREGEN_MAX_MSPT) {
+            return;
+        }
+        final int budget = mspt >= ChunkIOSettings.PREGEN_MAX_MSPT * 0.8 ? Math.max(1, ChunkIOSettings.PREGEN_CHUNKS_PER_TICK / 2)
+                : ChunkIOSettings.PREGEN_CHUNKS_PER_TICK;
+
+        for (ChunkPregenerator task : tasks.values().toArray(new ChunkPregenerator[0])) {
+            task.tick(budget);
+        }
+    }
+
+    private static void resume(WorldServer world) {
+        final File file = new File(world.getSaveHandler().getWorldDirectory(), STATE_FILE);
+        if (!file.isFile()) {
+            return;
+        }
+
+        try {
+            final NBTTagCompound compound = CompressedStreamTools.read(file);
+            if (compound == null) {
+                return;
+            }
+
+            final ChunkPregenerator task = new ChunkPregenerator(world, compound.getInteger("CenterX"), compound.getInteger("CenterZ"),
+                    compound.getInteger("Radius"), compound.getLong("Completed"));
+            task.completed.set(0, (int) task.watermark);
+            tasks.put(world, task);
+            SpongeImpl.getLogger().info("Resuming pregeneration of {} at {}%", task.getWorldName(), String.format("%.1f", task.getProgress() * 100));
+        } catch (IOException | RuntimeException e) {
+            SpongeImpl.getLogger().error("Failed to resume pregeneration of {}", file, e);
+        }
+    }
+
+    private void tick(int budget) {
+        final int maxInFlight = Math.max(16, ChunkIOSettings.PREGEN_CHUNKS_PER_TICK * 4);
+        while (budget > 0 && this.next < this.total && this.inFlight < maxInFlight) {
+            final long index = this.next++;
+            final int x = this.centerX - this.radius + (int) (index % this.size);
+            final int z = this.centerZ - this.radius + (int) (index / this.size);
+            if (request(x, z)) {
+                budget--;
+            }
+        }
+
+        if (this.completedCount == this.total) {
+            tasks.remove(this.world);
+            this.getStateFile().delete();
+            SpongeImpl.getLogger().info("Finished pregenerating {} chunks in {}", this.total, this.getWorldName());
+            return;
+        }
+
+        if (++this.ticksSinceSave >= SAVE_INTERVAL) {
+            this.ticksSinceSave = 0;
+            save();
+        }
+
+        final long now = System.nanoTime();
+        if (now - this.lastReport >= REPORT_INTERVAL_NANOS) {
+            this.lastReport = now;
+            SpongeImpl.getLogger().info("Pregenerating {}: {} / {} chunks ({}%), ETA {}", this.getWorldName(), this.completedCount, this.total,
+                    String.format("%.1f", getProgress() * 100), formatEta());
+        }
+    }
+
+    /**
+     * Requests the chunk to be loaded or generated.
+     *
+     * @return True if the chunk wasn't loaded yet
+     */
+    private boolean request(int x, int z) {
+        final ChunkProviderServer provider = this.world.getChunkProvider();
+        if (((ChunkProviderServerAccessor_Vanilla) provider).chunkIOAccessor$getLoadedChunks().containsKey(ChunkPos.asLong(x, z))) {
+            complete(x, z, false);
+            return false;
+        }
+
+        this.inFlight++;
+        ((ChunkIOProviderBridge_Vanilla) provider).vanillaBridge$loadChunk(x, z).thenAccept(chunk -> {
+            if (chunk != null) {
+                onChunk(x, z, chunk);
+            } else if (ChunkIOSettings.ASYNC_GENERATION) {
+                ((ChunkIOProviderBridge_Vanilla) provider).vanillaBridge$generateChunk(x, z, generated -> onChunk(x, z, generated));
+            } else {
+                onChunk(x, z, provider.provideChunk(x, z));
+            }
+        });
+        return true;
+    }
+
+    private void onChunk(int x, int z, @Nullable Chunk chunk) {
+        this.inFlight--;
+        if (chunk == null) {
+            SpongeImpl.getLogger().warn("Failed to pregenerate chunk {}, {} in {}", x, z, this.getWorldName());
+        }
+
+        if (this.stopped) {
+            if (chunk != null) {
+                unload(x, z);
+            }
+            return;
+        }
+
+        complete(x, z, chunk != null);
+    }
+
+    private void complete(int x, int z, boolean loadedByTask) {
+        final int index = index(x, z);
+        if (this.completed.get(index)) {
+            return;
+        }
+
+        this.completed.set(index);
+        this.completedCount++;
+        while (this.watermark < this.total && this.completed.get((int) this.watermark)) {
+            this.watermark++;
+        }
+
+        if (loadedByTask) {
+            this.loaded.add(ChunkPos.asLong(x, z));
+        }
+
+        // Unload chunks that can't be populated any further
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dz = -1; dz <= 1; dz++) {
+                if (this.loaded.contains(ChunkPos.asLong(x + dx, z + dz)) && isSurrounded(x + dx, z + dz)) {
+                    this.loaded.remove(ChunkPos.asLong(x + dx, z + dz));
+                    unload(x + dx, z + dz);
+                }
+            }
+        }
+    }
+
+    private boolean isSurrounded(int x, int z) {
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dz = -1; dz <= 1; dz++) {
+                final int nx = x + dx;
+                final int nz = z + dz;
+                if (contains(nx, nz) && !this.completed.get(index(nx, nz))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void unload(int x, int z) {
+        // Keep chunks loaded that players are using
+        if (this.world.getPlayerChunkMap().contains(x, z)) {
+            return;
+        }
+
+        final Chunk chunk = ((ChunkProviderServerAccessor_Vanilla) this.world.getChunkProvider()).chunkIOAccessor$getLoadedChunks()
+                .get(ChunkPos.asLong(x, z));
+        if (chunk != null) {
+            this.world.getChunkProvider().queueUnload(chunk);
+        }
+    }
+
+    private void unloadAll() {
+        for (long pos : this.loaded) {
+            unload((int) pos, (int) (pos >> 32));
+        }
+        this.loaded.clear();
+    }
+
+    private boolean contains(int x, int z) {
+        return Math.abs(x - this.centerX) <= this.radius && Math.abs(z - this.centerZ) <= this.radius;
+    }
+
+    private int index(int x, int z) {
+        return (z - this.centerZ + this.radius) * this.size + (x - this.centerX + this.radius);
+    }
+
+    private File getStateFile() {
+        return new File(this.world.getSaveHandler().getWorldDirectory(), STATE_FILE);
+    }
+
+    private void save() {
+        final NBTTagCompound compound = new NBTTagCompound();
+        compound.setInteger("CenterX", this.centerX);
+        compound.setInteger("CenterZ", this.centerZ);
+        compound.setInteger("Radius", this.radius);
+        // Chunks above the watermark are requested again after a restart, which is cheap for chunks that exist already
+        compound.setLong("Completed", this.watermark);
+        try {
+            CompressedStreamTools.write(compound, getStateFile());
+        } catch (IOException e) {
+            SpongeImpl.getLogger().error("Failed to save pregeneration progress of {}", this.getWorldName(), e);
+        }
+    }
+
+    public WorldServer getWorld() {
+        return this.world;
+    }
+
+    public String getWorldName() {
+        return ((org.spongepowered.api.world.World) this.world).getName();
+    }
+
+    public long getTotal() {
+        return this.total;
+    }
+
+    public long getCompleted() {
+        return this.completedCount;
+    }
+
+    public double getProgress() {
+        return (double) this.completedCount / this.total;
+    }
+
+    /**
+     * Returns the estimated remaining time based on the rate since the task
+     * was started or resumed.
+     *
+     * @return The estimated remaining time in seconds, or -1 if unknown
+     */
+    public long getEta() {
+        final long done = this.completedCount - this.completedAtStart;
+        final long elapsed = System.nanoTime() - this.started;
+        if (done <= 0) {
+            return -1;
+        }
+        return TimeUnit.NANOSECONDS.toSeconds((long) ((double) elapsed / done * (this.total - this.completedCount)));
+    }
+
+    public String formatEta() {
+        final long eta = getEta();
+        if (eta < 0) {
+            return "unknown";
+        }
+        return String.format("%d:%02d:%02d", eta / 3600, eta / 60 % 60, eta % 60);
+    }
+
+}
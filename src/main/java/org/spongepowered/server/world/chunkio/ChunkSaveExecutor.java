@@ -0,0 +1,110 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.world.chunkio;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes the chunks waiting in the {@link ChunkSaveQueue}s of all worlds
+ * on a separate thread.
+ */
+public final class ChunkSaveExecutor {
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Chunk Save Thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final Set<ChunkSaveQueue> queues = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    private static final AtomicInteger pendingCount = new AtomicInteger();
+    private static final AtomicLong writtenCount = new AtomicLong();
+
+    private ChunkSaveExecutor() {
+    }
+
+    /**
+     * Returns the number of chunks waiting to be written, across all worlds.
+     *
+     * @return The number of pending chunks
+     */
+    public static int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    /**
+     * Returns the total number of chunks written since the server started.
+     *
+     * @return The number of written chunks
+     */
+    public static long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    /**
+     * Writes all pending chunks of all worlds on the current thread. Called
+     * whenever the vanilla file I/O thread is waited for, e.g. before the
+     * region files are closed.
+     */
+    public static void flushAll() {
+        final List<ChunkSaveQueue> copy;
+        synchronized (queues) {
+            copy = new ArrayList<>(queues);
+        }
+
+        for (ChunkSaveQueue queue : copy) {
+            queue.writeAll();
+        }
+    }
+
+    static void register(ChunkSaveQueue queue) {
+        queues.add(queue);
+    }
+
+    static void schedule(ChunkSaveQueue queue) {
+        executor.execute(queue::drain);
+    }
+
+    static void onQueued() {
+        pendingCount.incrementAndGet();
+    }
+
+    static void onRemoved(boolean written) {
+        pendingCount.decrementAndGet();
+        if (written) {
+            writtenCount.incrementAndGet();
+        }
+    }
+
+}
@@ -0,0 +1,323 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.world.chunkio;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.math.ChunkPos;
+import org.spongepowered.common.SpongeImpl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nullable;
+
+/**
+ * The chunks of a single chunk loader that are waiting to be written to
+ * its {@link ChunkStorage}. Replaces {@code AnvilChunkLoader.chunksToSave}.
+ *
+ * <p>Chunks are serialized and compressed as soon as they are queued, so
+ * waiting chunks only hold a compact byte array instead of the whole NBT
+ * tree. Chunks stay in the queue until they were written, so reads always
+ * see the latest data. Pending chunks of one region are written together in a
+ * single pass, see {@link ChunkSaveExecutor}. The write lock is only held
+ * for one region at a time, so a thread that saves more chunks than the save
+ * thread keeps up with can write its own region in between.</p>
+ *
+ * <p>The chunks of worlds that are unloaded by the {@link AsyncWorldUnloader}
+ * are compressed once they are written instead, so this doesn't happen on
+ * the main thread.</p>
+ */
+public final class ChunkSaveQueue {
+
+    private final File saveLocation;
+    private final ChunkStorage storage;
+    private final WarmChunkCache warmCache;
+    private final Map<Long, PendingSave> pending = new ConcurrentHashMap<>();
+    // The pending chunks of each region, in the order the regions were queued
+    // Guarded by itself, and updated together with the pending chunks
+    private final Long2ObjectLinkedOpenHashMap<LongOpenHashSet> regions = new Long2ObjectLinkedOpenHashMap<>();
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    public ChunkSaveQueue(File saveLocation, ChunkStorage storage, WarmChunkCache warmCache) {
+        this.saveLocation = saveLocation;
+        this.storage = storage;
+        this.warmCache = warmCache;
+        ChunkSaveExecutor.register(this);
+    }
+
+    /**
+     * Queues the chunk data to be written. Replaces the previously queued
+     * data of the chunk if it wasn't written yet.
+     *
+     * @param pos The position of the chunk
+     * @param compound The chunk data
+     * @param unloaded Whether the chunk was unloaded, so its data is kept
+     *     in the {@link WarmChunkCache} once it was written
+     */
+    public void add(ChunkPos pos, NBTTagCompound compound, boolean unloaded) {
+        final PendingSave save;
+        if (AsyncWorldUnloader.isDetaching()) {
+            // The world is no longer modified, compress the chunk when it is written
+            save = new PendingSave(pos.x, pos.z, compound, unloaded);
+        } else {
+            try {
+                save = new PendingSave(pos.x, pos.z, ChunkCompressor.get().encode(compound), unloaded);
+            } catch (IOException | RuntimeException e) {
+                // Dropped, like in vanilla
+                SpongeImpl.getLogger().error("Failed to save chunk @ ({}, {}) in {}", pos.x, pos.z, this.saveLocation, e);
+                return;
+            }
+        }
+
+        final long key = ChunkPos.asLong(pos.x, pos.z);
+        final long region = ChunkPos.asLong(pos.x >> 5, pos.z >> 5);
+        final boolean added;
+        synchronized (this.regions) {
+            added = this.pending.put(key, save) == null;
+            if (added) {
+                LongOpenHashSet chunks = this.regions.get(region);
+                if (chunks == null) {
+                    chunks = new LongOpenHashSet();
+                    this.regions.put(region, chunks);
+                }
+                chunks.add(key);
+            }
+        }
+        if (added) {
+            ChunkSaveExecutor.onQueued();
+        }
+
+        if (AsyncWorldUnloader.isDetaching()) {
+            // Written by the AsyncWorldUnloader
+            return;
+        }
+
+        // Too many chunks waiting, write the region of this chunk on this thread
+        // Never wait for the save thread though, it is writing chunks right now anyway
+        if (ChunkSaveExecutor.getPendingCount() > ChunkIOSettings.MAX_PENDING_SAVES && this.writeLock.tryLock()) {
+            try {
+                writeRegion(getBatch(region));
+            } finally {
+                this.writeLock.unlock();
+            }
+        }
+
+        if (this.scheduled.compareAndSet(false, true)) {
+            ChunkSaveExecutor.schedule(this);
+        }
+    }
+
+    /**
+     * Returns the queued data of the chunk, decoded from the compressed
+     * data. Each call returns a new copy.
+     *
+     * <p>This is safe to call asynchronously from a separate thread.</p>
+     *
+     * @param x The x coordinate of the chunk
+     * @param z The z coordinate of the chunk
+     * @return The chunk data, or null if the chunk is not waiting to be saved
+     * @throws IOException If the queued data could not be decoded
+     */
+    @Nullable
+    public NBTTagCompound get(int x, int z) throws IOException {
+        final PendingSave save = this.pending.get(ChunkPos.asLong(x, z));
+        return save != null ? ChunkDecompressor.get().decodeDeflated(save.getData()) : null;
+    }
+
+    public boolean contains(int x, int z) {
+        return this.pending.containsKey(ChunkPos.asLong(x, z));
+    }
+
+    public int size() {
+        return this.pending.size();
+    }
+
+    /**
+     * Writes all pending chunks of one region.
+     *
+     * @return True if any chunks were written
+     */
+    public boolean writeNext() {
+        this.writeLock.lock();
+        try {
+            final List<PendingSave> batch = getBatch();
+            if (batch == null) {
+                return false;
+            }
+
+            writeRegion(batch);
+            return true;
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Writes all pending chunks, one region at a time. Other threads may
+     * write a region in between.
+     */
+    public void writeAll() {
+        while (writeNext()) {
+            // Chunks queued in the meantime are written as well
+        }
+    }
+
+    /**
+     * Returns the pending chunks of the region that was queued first.
+     *
+     * @return The pending chunks, or null if no chunks are pending
+     */
+    @Nullable
+    private List<PendingSave> getBatch() {
+        synchronized (this.regions) {
+            return this.regions.isEmpty() ? null : getBatch(this.regions.firstLongKey());
+        }
+    }
+
+    private List<PendingSave> getBatch(long region) {
+        final List<PendingSave> batch = new ArrayList<>();
+        synchronized (this.regions) {
+            final LongOpenHashSet chunks = this.regions.get(region);
+            if (chunks != null) {
+                for (long key : chunks) {
+                    batch.add(this.pending.get(key));
+                }
+            }
+        }
+        return batch;
+    }
+
+    void drain() {
+        // Chunks queued after this will schedule another drain
+        this.scheduled.set(false);
+        writeAll();
+    }
+
+    private void writeRegion(List<PendingSave> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        final byte[][] data = new byte[batch.size()][];
+        final int[] length = new int[batch.size()];
+        final ChunkPos[] positions = new ChunkPos[batch.size()];
+        for (int i = 0; i < data.length; i++) {
+            final PendingSave save = batch.get(i);
+            positions[i] = new ChunkPos(save.x, save.z);
+            try {
+                data[i] = save.getData();
+                length[i] = data[i].length;
+            } catch (IOException | RuntimeException e) {
+                // Skipped by the storage and dropped below, like in vanilla
+                SpongeImpl.getLogger().error("Failed to save chunk @ ({}, {}) in {}", save.x, save.z, this.saveLocation, e);
+            }
+        }
+
+        boolean written = false;
+        try {
+            this.storage.write(positions, data, length);
+            written = true;
+        } catch (IOException e) {
+            // The chunks are dropped below, like in vanilla
+            SpongeImpl.getLogger().error("Failed to write chunks in {}", this.saveLocation, e);
+        }
+
+        // Only remove the chunks once they were written, unless they were queued again in the meantime
+        for (int i = 0; i < data.length; i++) {
+            final PendingSave save = batch.get(i);
+            // Cache before removing the chunk, so there is no gap in which neither has the latest data
+            if (written && data[i] != null && save.unloaded && this.pending.get(ChunkPos.asLong(save.x, save.z)) == save) {
+                this.warmCache.put(save.x, save.z, data[i]);
+            } else if (!save.unloaded) {
+                // Drop data cached by a write that raced with this save
+                this.warmCache.invalidate(save.x, save.z);
+            }
+            if (remove(save)) {
+                ChunkSaveExecutor.onRemoved(written);
+            }
+        }
+    }
+
+    private boolean remove(PendingSave save) {
+        final long key = ChunkPos.asLong(save.x, save.z);
+        final long region = ChunkPos.asLong(save.x >> 5, save.z >> 5);
+        synchronized (this.regions) {
+            if (!this.pending.remove(key, save)) {
+                return false; // Queued again in the meantime
+            }
+
+            final LongOpenHashSet chunks = this.regions.get(region);
+            if (chunks != null && chunks.remove(key) && chunks.isEmpty()) {
+                this.regions.remove(region);
+            }
+            return true;
+        }
+    }
+
+    private static final class PendingSave {
+
+        final int x;
+        final int z;
+        final boolean unloaded;
+
+        // Guarded by this, exactly one of them is set
+        @Nullable private NBTTagCompound compound;
+        @Nullable private byte[] data; // Compressed with deflate
+
+        PendingSave(int x, int z, byte[] data, boolean unloaded) {
+            this.x = x;
+            this.z = z;
+            this.data = data;
+            this.unloaded = unloaded;
+        }
+
+        PendingSave(int x, int z, NBTTagCompound compound, boolean unloaded) {
+            this.x = x;
+            this.z = z;
+            this.compound = compound;
+            this.unloaded = unloaded;
+        }
+
+        synchronized byte[] getData() throws IOException {
+            if (this.data == null) {
+                this.data = ChunkCompressor.get().encode(this.compound);
+                this.compound = null;
+            }
+            return this.data;
+        }
+
+    }
+
+}
@@ -0,0 +1,208 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.world.chunkio;
+
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.EntityTrackerEntry;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.management.PlayerChunkMapEntry;
+import net.minecraft.util.IntHashMap;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.Chunk;
+import org.spongepowered.server.bridge.world.chunkio.ChunkIOPlayerChunkMapEntryBridge_Vanilla;
+import org.spongepowered.server.mixin.chunkio.EntityTrackerAccessor_ChunkIO;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Limits how many full chunks are sent to each player per tick, so a few
+ * fast moving players can't saturate their connection and the network
+ * threads. Chunks above the budget of
+ * {@link ChunkIOSettings#PLAYER_CHUNKS_PER_TICK} are deferred by their
+ * {@link PlayerChunkMapEntry} and sent in the following ticks, nearest
+ * first.
+ *
+ * <p>While a chunk is deferred, the player is not treated as watching it,
+ * so the entity tracker doesn't send entities in chunks the client
+ * doesn't have yet. Once the chunk was sent, the entities in it are
+ * tracked for the player right away.</p>
+ *
+ * <p>All methods must be called from the main thread.</p>
+ */
+public final class ChunkSendLimiter {
+
+    private static final Map<EntityPlayerMP, PlayerState> players = new WeakHashMap<>();
+    private static int currentTick;
+
+    private ChunkSendLimiter() {
+    }
+
+    private static PlayerState getState(EntityPlayerMP player) {
+        return players.computeIfAbsent(player, p -> new PlayerState());
+    }
+
+    /**
+     * Checks if a full chunk may be sent to the player in this tick and
+     * counts it against the budget of the player if it may.
+     *
+     * @param player The player
+     * @return True if the chunk may be sent now, false if it must be deferred
+     */
+    public static boolean tryAcquire(EntityPlayerMP player) {
+        final PlayerState state = getState(player);
+        state.startTick();
+        // Chunks that were deferred before are sent first
+        if (!state.deferred.isEmpty() || state.sentThisTick >= ChunkIOSettings.PLAYER_CHUNKS_PER_TICK) {
+            return false;
+        }
+        state.onSent();
+        return true;
+    }
+
+    /**
+     * Remembers that the chunk of the entry was deferred for the player.
+     *
+     * @param player The player
+     * @param entry The entry that deferred the chunk
+     */
+    public static void defer(EntityPlayerMP player, PlayerChunkMapEntry entry) {
+        getState(player).deferred.add(entry);
+    }
+
+    /**
+     * Sends the deferred chunks of all players, within their budget.
+     *
+     * @param server The server
+     */
+    public static void tick(MinecraftServer server) {
+        currentTick = server.getTickCounter();
+        for (Map.Entry<EntityPlayerMP, PlayerState> entry : players.entrySet()) {
+            entry.getValue().startTick();
+            if (!entry.getValue().deferred.isEmpty()) {
+                sendDeferred(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private static void sendDeferred(EntityPlayerMP player, PlayerState state) {
+        final List<PlayerChunkMapEntry> deferred = state.deferred;
+        if (deferred.size() > ChunkIOSettings.PLAYER_CHUNKS_PER_TICK) {
+            final int x = (int) Math.floor(player.posX) >> 4;
+            final int z = (int) Math.floor(player.posZ) >> 4;
+            deferred.sort(Comparator.comparingInt(entry -> {
+                final ChunkPos pos = entry.getPos();
+                return (pos.x - x) * (pos.x - x) + (pos.z - z) * (pos.z - z);
+            }));
+        }
+
+        int i = 0;
+        while (i < deferred.size() && state.sentThisTick < ChunkIOSettings.PLAYER_CHUNKS_PER_TICK) {
+            // Entries the player left in the meantime are skipped
+            if (((ChunkIOPlayerChunkMapEntryBridge_Vanilla) deferred.get(i++)).vanillaBridge$sendDeferred(player)) {
+                state.onSent();
+            }
+        }
+        deferred.subList(0, i).clear();
+    }
+
+    /**
+     * Starts tracking the entities in the chunk that was just sent to the
+     * player. The entity tracker only checks this when the entities or the
+     * player move.
+     *
+     * @param world The world of the chunk
+     * @param player The player the chunk was sent to
+     * @param chunk The chunk
+     */
+    public static void trackEntities(WorldServer world, EntityPlayerMP player, Chunk chunk) {
+        final IntHashMap<EntityTrackerEntry> tracked = ((EntityTrackerAccessor_ChunkIO) world.getEntityTracker()).chunkIOAccessor$getTrackedEntities();
+        for (Iterable<Entity> entities : chunk.getEntityLists()) {
+            for (Entity entity : entities) {
+                final EntityTrackerEntry entry = tracked.lookup(entity.getEntityId());
+                if (entry != null && entity != player) {
+                    entry.updatePlayerEntity(player);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of chunks waiting to be sent to the player.
+     *
+     * @param player The player
+     * @return The number of deferred chunks
+     */
+    public static int getDeferredCount(EntityPlayerMP player) {
+        final PlayerState state = players.get(player);
+        return state != null ? state.deferred.size() : 0;
+    }
+
+    /**
+     * Returns the number of full chunks sent to the player in the last
+     * complete second.
+     *
+     * @param player The player
+     * @return The chunks sent per second
+     */
+    public static int getSendRate(EntityPlayerMP player) {
+        final PlayerState state = players.get(player);
+        return state != null ? state.sentLastSecond : 0;
+    }
+
+    private static final class PlayerState {
+
+        final List<PlayerChunkMapEntry> deferred = new ArrayList<>();
+        int tick;
+        int sentThisTick;
+        int sentThisSecond;
+        int sentLastSecond;
+
+        void startTick() {
+            if (this.tick == currentTick) {
+                return;
+            }
+
+            if (this.tick / 20 != currentTick / 20) {
+                this.sentLastSecond = currentTick / 20 - this.tick / 20 == 1 ? this.sentThisSecond : 0;
+                this.sentThisSecond = 0;
+            }
+            this.tick = currentTick;
+            this.sentThisTick = 0;
+        }
+
+        void onSent() {
+            this.sentThisTick++;
+            this.sentThisSecond++;
+        }
+
+    }
+
+}
@@ -0,0 +1,154 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.world.chunkio;
+
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.math.ChunkPos;
+import org.spongepowered.common.SpongeImpl;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.annotation.Nullable;
+
+/**
+ * The storage of the chunks of a single chunk loader, beneath the
+ * {@link AsyncAnvilChunkLoader} and the {@link ChunkSaveQueue}.
+ *
+ * <p>Chunks are passed to the storage compressed with deflate, like they
+ * are stored in vanilla region files. All methods are safe to call from
+ * multiple threads at the same time.</p>
+ */
+public interface ChunkStorage {
+
+    /**
+     * Opens the storage in the save location of a chunk loader. Worlds keep
+     * the format they are stored in. {@link ChunkIOSettings#STORAGE} is only
+     * used for worlds that don't store any chunks yet.
+     *
+     * @param saveLocation The directory of the world or dimension
+     * @return The storage
+     * @throws IOException If the storage could not be opened
+     */
+    static ChunkStorage open(File saveLocation) throws IOException {
+        // The world may still be written after it was unloaded
+        AsyncWorldUnloader.awaitUnload(saveLocation);
+
+        final File logDir = new File(saveLocation, LogChunkStorage.DIRECTORY);
+        if (logDir.isDirectory()) {
+            return new LogChunkStorage(logDir);
+        }
+
+        if (ChunkIOSettings.STORAGE == ChunkIOSettings.StorageFormat.LOG) {
+            if (!AnvilChunkStorage.hasRegionFiles(saveLocation)) {
+                return new LogChunkStorage(logDir);
+            }
+            SpongeImpl.getLogger().warn("{} is stored in the Anvil format, convert it with --convert-storage to use the log format", saveLocation);
+        }
+
+        return new AnvilChunkStorage(saveLocation);
+    }
+
+    /**
+     * Returns the format of this storage.
+     *
+     * @return The storage format
+     */
+    ChunkIOSettings.StorageFormat getFormat();
+
+    /**
+     * Reads and decompresses the data of the chunk.
+     *
+     * @param x The x coordinate of the chunk
+     * @param z The z coordinate of the chunk
+     * @return The chunk data, or null if the chunk is not stored
+     * @throws IOException If the data could not be read or is corrupted
+     */
+    @Nullable
+    NBTTagCompound read(int x, int z) throws IOException;
+
+    /**
+     * Reads the compressed data of the chunk.
+     *
+     * @param x The x coordinate of the chunk
+     * @param z The z coordinate of the chunk
+     * @return The compressed chunk data, or null if the chunk is not stored
+     * @throws IOException If the data could not be read
+     */
+    @Nullable
+    byte[] readCompressed(int x, int z) throws IOException;
+
+    /**
+     * Writes a batch of chunks of the same region.
+     *
+     * @param positions The positions of the chunks
+     * @param data The compressed data of each chunk, null entries are skipped
+     * @param lengths The length of the compressed data of each chunk
+     * @throws IOException If the chunks could not be written
+     */
+    void write(ChunkPos[] positions, byte[][] data, int[] lengths) throws IOException;
+
+    /**
+     * Returns whether the chunk is stored.
+     *
+     * @param x The x coordinate of the chunk
+     * @param z The z coordinate of the chunk
+     * @return True if the chunk is stored
+     */
+    boolean exists(int x, int z);
+
+    /**
+     * Returns the position of the chunk within the storage. Chunks close to
+     * each other can be read in this order to access the disk sequentially.
+     *
+     * @param x The x coordinate of the chunk
+     * @param z The z coordinate of the chunk
+     * @return The position of the chunk, or 0 if the chunk is not stored
+     */
+    int getLocality(int x, int z);
+
+    /**
+     * Returns the positions of all stored chunks.
+     *
+     * @return The positions, packed with {@link ChunkPos#asLong(int, int)}
+     * @throws IOException If the stored chunks could not be listed
+     */
+    long[] list() throws IOException;
+
+    /**
+     * Makes sure all written chunks are persisted on the disk.
+     *
+     * @throws IOException If the storage could not be flushed
+     */
+    void flush() throws IOException;
+
+    /**
+     * Flushes and closes the storage.
+     *
+     * @throws IOException If the storage could not be closed
+     */
+    void close() throws IOException;
+
+}
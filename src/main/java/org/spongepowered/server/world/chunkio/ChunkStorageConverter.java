@@ -0,0 +1,227 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.world.chunkio;
+
+import net.minecraft.util.math.ChunkPos;
+import org.spongepowered.common.SpongeImpl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Converts all chunks of a world to another {@link ChunkStorage} format
+ * before the server is started. Started with the {@code --convert-storage}
+ * command line option.
+ *
+ * <p>The chunks are copied without decompressing them into a temporary
+ * directory, which only replaces the old files once all chunks were copied.
+ * An interrupted conversion therefore leaves the world in its old format.
+ * The old files are kept next to the new ones with a {@code .bak} suffix,
+ * so they can be restored if something goes wrong.</p>
+ */
+public final class ChunkStorageConverter {
+
+    private static final String REGION_DIRECTORY = "region";
+    private static final String BACKUP_SUFFIX = ".bak";
+    private static final String TEMP_DIRECTORY = "chunkconvert.tmp";
+
+    private ChunkStorageConverter() {
+    }
+
+    /**
+     * Parses the name of a storage format, ignoring case.
+     *
+     * @param name The name of the format
+     * @return The storage format
+     * @throws IllegalArgumentException If there is no format with the name
+     */
+    public static ChunkIOSettings.StorageFormat parseFormat(String name) {
+        return ChunkIOSettings.StorageFormat.valueOf(name.toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Converts all chunk storages in the world directory, including its
+     * dimensions and additional worlds stored in its directory.
+     *
+     * @param worldDir The directory of the world
+     * @param format The format to convert to
+     * @throws IOException If the world directory could not be searched
+     */
+    public static void convert(File worldDir, ChunkIOSettings.StorageFormat format) throws IOException {
+        if (!worldDir.isDirectory()) {
+            SpongeImpl.getLogger().warn("World {} does not exist, nothing to convert", worldDir);
+            return;
+        }
+
+        final List<File> saveLocations = findSaveLocations(worldDir);
+
+        SpongeImpl.getLogger().info("Converting {} chunk storages in {} to the {} format", saveLocations.size(), worldDir, format);
+        final long start = System.nanoTime();
+        for (File saveLocation : saveLocations) {
+            try {
+                convertStorage(saveLocation, format);
+            } catch (IOException | RuntimeException e) {
+                SpongeImpl.getLogger().error("Failed to convert chunk storage in {}", saveLocation, e);
+            }
+        }
+
+        SpongeImpl.getLogger().info("Converted chunk storages in {} s", (System.nanoTime() - start) / 1_000_000_000);
+    }
+
+    /**
+     * Finds the save locations of all chunk storages in the world directory,
+     * including its dimensions and additional worlds stored in its directory.
+     *
+     * @param worldDir The directory of the world
+     * @return The save locations
+     * @throws IOException If the world directory could not be searched
+     */
+    static List<File> findSaveLocations(File worldDir) throws IOException {
+        try (Stream<Path> paths = Files.walk(worldDir.toPath())) {
+            return paths
+                    .filter(Files::isDirectory)
+                    .filter(path -> {
+                        final String name = path.getFileName().toString();
+                        return name.equals(REGION_DIRECTORY) || name.equals(LogChunkStorage.DIRECTORY);
+                    })
+                    // Left over from an interrupted conversion, which is deleted when converting again
+                    .filter(path -> !path.getParent().getFileName().toString().equals(TEMP_DIRECTORY))
+                    .map(path -> path.getParent().toFile())
+                    .distinct()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static void convertStorage(File saveLocation, ChunkIOSettings.StorageFormat format) throws IOException {
+        final File logDir = new File(saveLocation, LogChunkStorage.DIRECTORY);
+        final File regionDir = new File(saveLocation, REGION_DIRECTORY);
+        final ChunkIOSettings.StorageFormat current = logDir.isDirectory() ? ChunkIOSettings.StorageFormat.LOG : ChunkIOSettings.StorageFormat.ANVIL;
+        if (current == format) {
+            SpongeImpl.getLogger().info("{} is already stored in the {} format", saveLocation, format);
+            return;
+        }
+
+        final File sourceDir = current == ChunkIOSettings.StorageFormat.LOG ? logDir : regionDir;
+        final File targetDir = format == ChunkIOSettings.StorageFormat.LOG ? logDir : regionDir;
+
+        // Convert into a separate directory, so the chunk loader never sees a partially converted world
+        final File tempDir = new File(saveLocation, TEMP_DIRECTORY);
+        if (tempDir.exists()) {
+            delete(tempDir);
+        }
+        Files.createDirectories(tempDir.toPath());
+
+        final long converted;
+        final ChunkStorage source = open(saveLocation, current);
+        try {
+            converted = copy(source, open(tempDir, format));
+        } catch (IOException | RuntimeException e) {
+            delete(tempDir);
+            throw e;
+        } finally {
+            // Also releases the region files before they are moved
+            source.close();
+        }
+
+        // The chunk loader prefers the chunk log, so the world is complete after each step
+        if (targetDir.exists()) {
+            // e.g. an empty region directory next to the chunk log
+            Files.move(targetDir.toPath(), getBackupFile(targetDir).toPath());
+        }
+        Files.move(new File(tempDir, targetDir.getName()).toPath(), targetDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        final File backup = getBackupFile(sourceDir);
+        Files.move(sourceDir.toPath(), backup.toPath());
+        delete(tempDir);
+
+        SpongeImpl.getLogger().info("Converted {} chunks in {} to the {} format, the old files were moved to {}",
+                converted, saveLocation, format, backup);
+    }
+
+    private static long copy(ChunkStorage source, ChunkStorage target) throws IOException {
+        long converted = 0;
+        try {
+            final ChunkPos[] positions = new ChunkPos[1];
+            final byte[][] data = new byte[1][];
+            final int[] lengths = new int[1];
+            for (long key : source.list()) {
+                final int x = (int) key;
+                final int z = (int) (key >> 32);
+                final byte[] compressed = source.readCompressed(x, z);
+                if (compressed == null) {
+                    continue;
+                }
+
+                positions[0] = new ChunkPos(x, z);
+                data[0] = compressed;
+                lengths[0] = compressed.length;
+                target.write(positions, data, lengths);
+                converted++;
+            }
+            target.flush();
+        } finally {
+            target.close();
+        }
+        return converted;
+    }
+
+    /**
+     * Returns a backup file for the file that doesn't exist yet.
+     */
+    private static File getBackupFile(File file) {
+        File backup = new File(file.getPath() + BACKUP_SUFFIX);
+        for (int i = 1; backup.exists(); i++) {
+            backup = new File(file.getPath() + "." + i + BACKUP_SUFFIX);
+        }
+        return backup;
+    }
+
+    private static void delete(File dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            final List<Path> files = paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+            for (Path path : files) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private static ChunkStorage open(File saveLocation, ChunkIOSettings.StorageFormat format) throws IOException {
+        switch (format) {
+            case LOG:
+                return new LogChunkStorage(new File(saveLocation, LogChunkStorage.DIRECTORY));
+            case ANVIL:
+            default:
+                return new AnvilChunkStorage(saveLocation);
+        }
+    }
+
+}
@@ -0,0 +1,168 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.world.chunkio;
+
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.world.WorldServer;
+import net.minecraftforge.common.chunkio.ChunkIOExecutor;
+import org.spongepowered.common.SpongeImpl;
+import org.spongepowered.common.world.WorldManager;
+import org.spongepowered.server.mixin.chunkio.PlayerChunkMapAccessor_ChunkIO;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Reduces the view distance of all worlds while the server is overloaded
+ * and restores it once the server recovered. The server counts as
+ * overloaded if the average tick takes longer than
+ * {@link ChunkIOSettings#VIEW_DISTANCE_MAX_MSPT} or more than
+ * {@link ChunkIOSettings#VIEW_DISTANCE_MAX_BACKLOG} chunk loads are queued.
+ *
+ * <p>The view distance is reduced by one chunk at a time, but never below
+ * {@link ChunkIOSettings#MIN_VIEW_DISTANCE}. It only grows back after the
+ * server stayed well below both limits for a while, so it doesn't
+ * oscillate around the limit. The view distance a world had before it was
+ * reduced is remembered, and view distances set by plugins or commands in
+ * the meantime replace it.</p>
+ */
+public final class DynamicViewDistance {
+
+    private static final int CHECK_INTERVAL_TICKS = 100;
+    // Number of checks in a row below the limits before the view distance grows again
+    private static final int RECOVERY_CHECKS = 6;
+
+    private static final Map<WorldServer, WorldState> worlds = new WeakHashMap<>();
+
+    private static int ticks;
+    private static int reduction;
+    private static int healthyChecks;
+
+    private DynamicViewDistance() {
+    }
+
+    public static void tick(MinecraftServer server) {
+        if (!ChunkIOSettings.DYNAMIC_VIEW_DISTANCE || ++ticks < CHECK_INTERVAL_TICKS) {
+            return;
+        }
+        ticks = 0;
+
+        final double mspt = MathHelper.average(server.tickTimeArray) / 1_000_000;
+        final int backlog = getBacklog();
+        if (mspt > ChunkIOSettings.VIEW_DISTANCE_MAX_MSPT || backlog > ChunkIOSettings.VIEW_DISTANCE_MAX_BACKLOG) {
+            healthyChecks = 0;
+            reduction++;
+        } else if (mspt < ChunkIOSettings.VIEW_DISTANCE_MAX_MSPT * 0.7 && backlog < ChunkIOSettings.VIEW_DISTANCE_MAX_BACKLOG / 4) {
+            if (reduction > 0 && ++healthyChecks >= RECOVERY_CHECKS) {
+                healthyChecks = 0;
+                reduction--;
+            }
+        } else {
+            healthyChecks = 0;
+        }
+
+        int maxReduction = 0;
+        for (WorldServer world : WorldManager.getWorlds()) {
+            maxReduction = Math.max(maxReduction, apply(world, mspt, backlog));
+        }
+        // Don't keep counting once all worlds are at the minimum
+        reduction = Math.min(reduction, maxReduction);
+    }
+
+    private static int getBacklog() {
+        int backlog = 0;
+        for (ChunkIOMetrics.QueueStats stats : ChunkIOExecutor.getQueueStats().values()) {
+            backlog += stats.get(ChunkIOMetrics.LoadState.QUEUED);
+        }
+        return backlog;
+    }
+
+    /**
+     * Applies the current reduction to the view distance of the world.
+     *
+     * @return The largest reduction that makes a difference for the world
+     */
+    private static int apply(WorldServer world, double mspt, int backlog) {
+        final int current = ((PlayerChunkMapAccessor_ChunkIO) world.getPlayerChunkMap()).chunkIOAccessor$getViewRadius();
+        final WorldState state = worlds.computeIfAbsent(world, w -> new WorldState(current));
+        if (current != state.applied) {
+            // Changed by someone else, use it as the new configured view distance
+            state.configured = current;
+        }
+
+        final int target = Math.max(Math.min(ChunkIOSettings.MIN_VIEW_DISTANCE, state.configured), state.configured - reduction);
+        if (target != current) {
+            SpongeImpl.getLogger().info("Changing the view distance of {} from {} to {} ({} ms per tick, {} chunk loads queued)",
+                    world.getWorldInfo().getWorldName(), current, target, String.format("%.1f", mspt), backlog);
+            world.getPlayerChunkMap().setPlayerViewRadius(target);
+        }
+        state.applied = target;
+        return Math.max(0, state.configured - ChunkIOSettings.MIN_VIEW_DISTANCE);
+    }
+
+    /**
+     * Returns the view distance the world would have without a reduction.
+     *
+     * @param world The world
+     * @return The configured view distance
+     */
+    public static int getConfiguredViewDistance(WorldServer world) {
+        final WorldState state = worlds.get(world);
+        return state != null ? state.configured : getViewDistance(world);
+    }
+
+    /**
+     * Returns the view distance currently used for the world.
+     *
+     * @param world The world
+     * @return The effective view distance
+     */
+    public static int getViewDistance(WorldServer world) {
+        return ((PlayerChunkMapAccessor_ChunkIO) world.getPlayerChunkMap()).chunkIOAccessor$getViewRadius();
+    }
+
+    /**
+     * Returns by how many chunks the view distance is currently reduced.
+     *
+     * @return The current reduction
+     */
+    public static int getReduction() {
+        return reduction;
+    }
+
+    private static final class WorldState {
+
+        int configured;
+        int applied;
+
+        WorldState(int viewDistance) {
+            this.configured = viewDistance;
+            this.applied = viewDistance;
+        }
+
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.world.chunkio;
+
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.gen.ChunkProviderServer;
+import org.spongepowered.common.bridge.world.WorldServerBridge;
+import org.spongepowered.common.bridge.world.chunk.ChunkBridge;
+import org.spongepowered.server.bridge.world.chunkio.ChunkIOWorldBridge_Vanilla;
+import org.spongepowered.server.mixin.chunkio.ChunkProviderServerAccessor_Vanilla;
+
+/**
+ * Unloads chunks of a world that are no longer in use by any player, like
+ * the chunk GC of SpongeCommon. Instead of checking all loaded chunks in a
+ * single tick, each sweep walks over a snapshot of the loaded chunks and
+ * only checks up to {@link ChunkIOSettings#CHUNK_GC_CHUNKS_PER_TICK} chunks
+ * or {@link ChunkIOSettings#CHUNK_GC_BUDGET_MICROS} per tick.
+ *
+ * <p>A new sweep is started once the previous one is complete and the
+ * configured chunk GC tick interval passed since it was started.</p>
+ */
+public final class IncrementalChunkGC {
+
+    private static final long[] EMPTY = new long[0];
+    // How many chunks are checked between looking at the clock
+    private static final int CLOCK_INTERVAL = 64;
+
+    private final WorldServer world;
+
+    private long[] sweep = EMPTY;
+    private int position;
+    private int ticksUntilSweep;
+
+    private int sweepReclaimed;
+    private int lastSweepReclaimed;
+    private long reclaimed;
+    private long sweeps;
+
+    public IncrementalChunkGC(WorldServer world) {
+        this.world = world;
+    }
+
+    /**
+     * Returns the chunk GC of the world.
+     *
+     * @param world The world
+     * @return The chunk GC
+     */
+    public static IncrementalChunkGC get(WorldServer world) {
+        return ((ChunkIOWorldBridge_Vanilla) world).vanillaBridge$getChunkGC();
+    }
+
+    /**
+     * Continues the current sweep, or starts a new one if it is due.
+     */
+    public void tick() {
+        this.ticksUntilSweep--;
+        if (this.position >= this.sweep.length) {
+            if (this.ticksUntilSweep > 0) {
+                return;
+            }
+            startSweep();
+        }
+
+        final ChunkProviderServer provider = this.world.getChunkProvider();
+        final long deadline = System.nanoTime() + ChunkIOSettings.CHUNK_GC_BUDGET_MICROS * 1000L;
+        final int end = Math.min(this.sweep.length, this.position + ChunkIOSettings.CHUNK_GC_CHUNKS_PER_TICK);
+        while (this.position < end) {
+            final Chunk chunk = ((ChunkProviderServerAccessor_Vanilla) provider).chunkIOAccessor$getLoadedChunks().get(this.sweep[this.position++]);
+            if (chunk != null && canUnload(chunk)) {
+                provider.queueUnload(chunk);
+                if (chunk.unloadQueued) {
+                    this.sweepReclaimed++;
+                }
+            }
+
+            if (this.position % CLOCK_INTERVAL == 0 && System.nanoTime() >= deadline) {
+                break;
+            }
+        }
+
+        if (this.position >= this.sweep.length) {
+            finishSweep();
+        }
+    }
+
+    private void startSweep() {
+        this.sweep = ((ChunkProviderServerAccessor_Vanilla) this.world.getChunkProvider()).chunkIOAccessor$getLoadedChunks().keySet().toLongArray();
+        this.position = 0;
+        this.ticksUntilSweep = ((WorldServerBridge) this.world).bridge$getChunkGCTickInterval();
+    }
+
+    private void finishSweep() {
+        this.sweep = EMPTY;
+        this.position = 0;
+        this.lastSweepReclaimed = this.sweepReclaimed;
+        this.reclaimed += this.sweepReclaimed;
+        this.sweepReclaimed = 0;
+        this.sweeps++;
+    }
+
+    private boolean canUnload(Chunk chunk) {
+        if (chunk.unloadQueued || ((ChunkBridge) chunk).bridge$isPersistedChunk() || !this.world.provider.canDropChunk(chunk.x, chunk.z)) {
+            return false;
+        }
+
+        // Still watched by a player
+        return !this.world.getPlayerChunkMap().contains(chunk.x, chunk.z);
+    }
+
+    /**
+     * Returns the number of chunks checked in the current sweep.
+     *
+     * @return The number of checked chunks, or 0 if no sweep is running
+     */
+    public int getProgress() {
+        return this.position;
+    }
+
+    /**
+     * Returns the number of chunks that are checked in the current sweep.
+     *
+     * @return The size of the sweep, or 0 if no sweep is running
+     */
+    public int getSweepSize() {
+        return this.sweep.length;
+    }
+
+    public int getLastSweepReclaimed() {
+        return this.lastSweepReclaimed;
+    }
+
+    public long getReclaimed() {
+        return this.reclaimed + this.sweepReclaimed;
+    }
+
+    public long getSweeps() {
+        return this.sweeps;
+    }
+
+}
@@ -0,0 +1,592 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.world.chunkio;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.math.ChunkPos;
+import org.spongepowered.common.SpongeImpl;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nullable;
+
+/**
+ * Stores chunks in append-only log segments instead of region files.
+ * Chunks are never rewritten in place: every save appends a new record to
+ * the active segment, and an in-memory index maps each chunk to its latest
+ * record. The index is rebuilt by scanning the segments when the storage is
+ * opened.
+ *
+ * <p>Each segment starts with a header that contains its generation, so
+ * the segments can be recovered in the order they were written even though
+ * the ids of deleted segments are reused. Each record consists of the chunk
+ * coordinates, the length and a CRC32 of the compressed data, followed by
+ * the data. A record that was only partially written when the server
+ * stopped is detected by its checksum and cut off.</p>
+ *
+ * <p>Segments where most records were replaced by newer records are
+ * compacted in the background by copying their remaining records to the
+ * active segment and deleting them afterwards.</p>
+ */
+public final class LogChunkStorage implements ChunkStorage {
+
+    /**
+     * The name of the directory in the save location of a chunk loader that
+     * contains the segments.
+     */
+    public static final String DIRECTORY = "chunklog";
+
+    private static final String SEGMENT_EXTENSION = ".log";
+    private static final int SEGMENT_MAGIC = 0x53434C47; // SCLG
+    private static final int SEGMENT_VERSION = 1;
+    private static final int SEGMENT_HEADER_SIZE = 16; // magic, version, generation
+    private static final int HEADER_SIZE = 16; // x, z, length, crc
+    private static final long SEGMENT_SIZE = 64 * 1024 * 1024;
+    // Same limit as region files
+    private static final int MAX_LENGTH = 255 * 4096 - 5;
+    private static final int MAX_SEGMENTS = 0xFFFF;
+    private static final double COMPACT_THRESHOLD = 0.5;
+    private static final long COMPACT_INTERVAL_SECONDS = 30;
+    private static final int DEFLATE_VERSION = 2;
+
+    private static final ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "Chunk Log Compaction Thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final File dir;
+    private final long segmentSize;
+    // Reads hold the read lock, so segments are never deleted while they are read
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // All guarded by the lock
+    private final Long2LongMap index = new Long2LongOpenHashMap();
+    private final Int2ObjectMap<Segment> segments = new Int2ObjectOpenHashMap<>();
+    private Segment active;
+    private long liveBytes;
+    private long totalBytes;
+
+    // Held during the whole compaction, so the storage isn't closed in the middle of it
+    private final Lock compactLock = new ReentrantLock();
+    private final ScheduledFuture<?> compaction;
+    private boolean closed; // Guarded by the compact lock
+
+    public LogChunkStorage(File dir) throws IOException {
+        this(dir, SEGMENT_SIZE);
+    }
+
+    LogChunkStorage(File dir, long segmentSize) throws IOException {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.index.defaultReturnValue(-1);
+        Files.createDirectories(dir.toPath());
+
+        final File[] files = dir.listFiles((d, name) -> name.endsWith(SEGMENT_EXTENSION));
+        final List<Segment> recovered = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                final int id = parseId(file.getName());
+                if (id >= 0 && id <= MAX_SEGMENTS) {
+                    final Segment segment = openSegment(id, file);
+                    if (segment != null) {
+                        recovered.add(segment);
+                    }
+                }
+            }
+        }
+
+        recovered.sort(Comparator.comparingLong(segment -> segment.generation));
+        for (Segment segment : recovered) {
+            recover(segment);
+        }
+
+        this.active = recovered.isEmpty() ? createSegment() : recovered.get(recovered.size() - 1);
+        this.compaction = compactor.scheduleWithFixedDelay(this::compact, COMPACT_INTERVAL_SECONDS, COMPACT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private static int parseId(String name) {
+        try {
+            return Integer.parseInt(name.substring(0, name.length() - SEGMENT_EXTENSION.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private File getFile(int id) {
+        return new File(this.dir, String.format("%05d", id) + SEGMENT_EXTENSION);
+    }
+
+    /**
+     * Opens an existing segment. Returns null if the segment was created
+     * right before the server stopped, so it doesn't contain any records.
+     */
+    @Nullable
+    private Segment openSegment(int id, File file) throws IOException {
+        final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            final long size = channel.size();
+            if (size < SEGMENT_HEADER_SIZE) {
+                channel.close();
+                Files.delete(file.toPath());
+                return null;
+            }
+
+            final ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+            readFully(channel, header, 0);
+            header.flip();
+            if (header.getInt() != SEGMENT_MAGIC || header.getInt() != SEGMENT_VERSION) {
+                throw new IOException("Unsupported chunk log segment " + file);
+            }
+
+            final Segment segment = new Segment(id, header.getLong(), file, channel);
+            segment.size = size;
+            channel.position(size);
+            this.segments.put(id, segment);
+            this.totalBytes += size;
+            return segment;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates a new segment with the lowest free id. Its generation is
+     * higher than the generation of all other segments.
+     */
+    private Segment createSegment() throws IOException {
+        int id = 0;
+        while (this.segments.containsKey(id)) {
+            id++;
+        }
+        if (id > MAX_SEGMENTS) {
+            throw new IOException("Too many segments in " + this.dir);
+        }
+
+        final long generation = this.active != null ? this.active.generation + 1 : 0;
+        final File file = getFile(id);
+        final FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            final ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+            header.putInt(SEGMENT_MAGIC).putInt(SEGMENT_VERSION).putLong(generation);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+
+        final Segment segment = new Segment(id, generation, file, channel);
+        segment.size = SEGMENT_HEADER_SIZE;
+        this.segments.put(id, segment);
+        this.totalBytes += SEGMENT_HEADER_SIZE;
+        return segment;
+    }
+
+    /**
+     * Adds the records of the segment to the index. Segments are recovered
+     * in the order they were written, so newer records replace older ones.
+     */
+    private void recover(Segment segment) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        final CRC32 crc = new CRC32();
+        long position = SEGMENT_HEADER_SIZE;
+        while (position + HEADER_SIZE <= segment.size) {
+            header.clear();
+            readFully(segment.channel, header, position);
+            header.flip();
+            final int x = header.getInt();
+            final int z = header.getInt();
+            final int length = header.getInt();
+            final int checksum = header.getInt();
+            if (length <= 0 || length > MAX_LENGTH || position + HEADER_SIZE + length > segment.size) {
+                break;
+            }
+
+            final byte[] data = new byte[length];
+            readFully(segment.channel, ByteBuffer.wrap(data), position + HEADER_SIZE);
+            crc.reset();
+            crc.update(data, 0, length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+
+            index(ChunkPos.asLong(x, z), pack(segment.id, position, length));
+            position += HEADER_SIZE + length;
+        }
+
+        if (position < segment.size) {
+            // Partially written when the server stopped
+            SpongeImpl.getLogger().warn("Discarding {} bytes of incomplete chunk data at the end of {}", segment.size - position, segment.file);
+            segment.channel.truncate(position);
+            this.totalBytes -= segment.size - position;
+            segment.size = position;
+            segment.channel.position(position);
+        }
+    }
+
+    private static long pack(int segment, long position, int length) {
+        return (long) segment << 48 | position << 20 | length;
+    }
+
+    private static int getSegment(long location) {
+        return (int) (location >>> 48);
+    }
+
+    private static long getPosition(long location) {
+        return (location >>> 20) & 0xFFFFFFFL;
+    }
+
+    private static int getLength(long location) {
+        return (int) (location & 0xFFFFF);
+    }
+
+    private void index(long key, long location) {
+        final long previous = this.index.put(key, location);
+        if (previous != -1) {
+            final int size = HEADER_SIZE + getLength(previous);
+            this.segments.get(getSegment(previous)).live -= size;
+            this.liveBytes -= size;
+        }
+
+        final int size = HEADER_SIZE + getLength(location);
+        this.segments.get(getSegment(location)).live += size;
+        this.liveBytes += size;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    @Override
+    public ChunkIOSettings.StorageFormat getFormat() {
+        return ChunkIOSettings.StorageFormat.LOG;
+    }
+
+    @Nullable
+    @Override
+    public NBTTagCompound read(int x, int z) throws IOException {
+        final ChunkDecompressor decompressor = ChunkDecompressor.get();
+        final int length;
+        final long start = System.nanoTime();
+        this.lock.readLock().lock();
+        try {
+            final long location = this.index.get(ChunkPos.asLong(x, z));
+            if (location == -1) {
+                return null;
+            }
+
+            length = getLength(location);
+            readFully(this.segments.get(getSegment(location)).channel, ByteBuffer.wrap(decompressor.input(length), 0, length),
+                    getPosition(location) + HEADER_SIZE);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+
+        ChunkIOMetrics.READ.record(System.nanoTime() - start);
+        return decompressor.decode(length, DEFLATE_VERSION);
+    }
+
+    @Nullable
+    @Override
+    public byte[] readCompressed(int x, int z) throws IOException {
+        this.lock.readLock().lock();
+        try {
+            final long location = this.index.get(ChunkPos.asLong(x, z));
+            return location != -1 ? readRecord(location) : null;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    private byte[] readRecord(long location) throws IOException {
+        final byte[] data = new byte[getLength(location)];
+        readFully(this.segments.get(getSegment(location)).channel, ByteBuffer.wrap(data), getPosition(location) + HEADER_SIZE);
+        return data;
+    }
+
+    @Override
+    public void write(ChunkPos[] positions, byte[][] data, int[] lengths) throws IOException {
+        this.lock.writeLock().lock();
+        try {
+            for (int i = 0; i < data.length; i++) {
+                if (data[i] != null) {
+                    append(positions[i].x, positions[i].z, data[i], lengths[i]);
+                }
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private void append(int x, int z, byte[] data, int length) throws IOException {
+        if (length > MAX_LENGTH) {
+            throw new IOException("Chunk " + x + ", " + z + " is too large (" + length + " bytes)");
+        }
+
+        if (this.active.size >= this.segmentSize) {
+            this.active.channel.force(false);
+            this.active = createSegment();
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(x).putInt(z).putInt(length).putInt((int) crc.getValue());
+        header.flip();
+
+        final Segment segment = this.active;
+        final long position = segment.size;
+        final ByteBuffer[] buffers = {header, ByteBuffer.wrap(data, 0, length)};
+        while (buffers[1].hasRemaining()) {
+            segment.channel.write(buffers);
+        }
+
+        segment.size += HEADER_SIZE + length;
+        this.totalBytes += HEADER_SIZE + length;
+        index(ChunkPos.asLong(x, z), pack(segment.id, position, length));
+    }
+
+    @Override
+    public boolean exists(int x, int z) {
+        this.lock.readLock().lock();
+        try {
+            return this.index.containsKey(ChunkPos.asLong(x, z));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int getLocality(int x, int z) {
+        this.lock.readLock().lock();
+        try {
+            final long location = this.index.get(ChunkPos.asLong(x, z));
+            return location != -1 ? (int) (location >>> 32) : 0;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long[] list() {
+        this.lock.readLock().lock();
+        try {
+            return this.index.keySet().toLongArray();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the size of all segments in bytes.
+     *
+     * @return The total size
+     */
+    public long getTotalBytes() {
+        this.lock.readLock().lock();
+        try {
+            return this.totalBytes;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the size of the latest record of each chunk in bytes.
+     *
+     * @return The live size
+     */
+    public long getLiveBytes() {
+        this.lock.readLock().lock();
+        try {
+            return this.liveBytes;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Copies the remaining records of the segment with the most replaced
+     * records to the active segment and deletes it afterwards. Runs
+     * periodically on a separate thread.
+     */
+    void compact() {
+        this.compactLock.lock();
+        try {
+            if (this.closed) {
+                return;
+            }
+
+            final Segment victim;
+            final long[] keys;
+            this.lock.readLock().lock();
+            try {
+                victim = findCompactionCandidate();
+                if (victim == null) {
+                    return;
+                }
+
+                final LongArrayList live = new LongArrayList();
+                for (Long2LongMap.Entry entry : this.index.long2LongEntrySet()) {
+                    if (getSegment(entry.getLongValue()) == victim.id) {
+                        live.add(entry.getLongKey());
+                    }
+                }
+                keys = live.toLongArray();
+            } finally {
+                this.lock.readLock().unlock();
+            }
+
+            // Copy one record at a time, so chunk loads and saves aren't blocked for long
+            for (long key : keys) {
+                this.lock.writeLock().lock();
+                try {
+                    final long location = this.index.get(key);
+                    if (getSegment(location) == victim.id) {
+                        append((int) key, (int) (key >> 32), readRecord(location), getLength(location));
+                    }
+                } finally {
+                    this.lock.writeLock().unlock();
+                }
+            }
+
+            this.lock.writeLock().lock();
+            try {
+                // Make sure the copies are persisted before the originals are gone
+                this.active.channel.force(false);
+                this.segments.remove(victim.id);
+                this.totalBytes -= victim.size;
+                victim.channel.close();
+                Files.delete(victim.file.toPath());
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        } catch (IOException | RuntimeException e) {
+            SpongeImpl.getLogger().error("Failed to compact chunk log segments in {}", this.dir, e);
+        } finally {
+            this.compactLock.unlock();
+        }
+    }
+
+    @Nullable
+    private Segment findCompactionCandidate() {
+        Segment candidate = null;
+        double candidateRatio = COMPACT_THRESHOLD;
+        for (Segment segment : this.segments.values()) {
+            if (segment == this.active) {
+                continue;
+            }
+
+            final double ratio = (double) segment.live / segment.size;
+            if (ratio < candidateRatio) {
+                candidate = segment;
+                candidateRatio = ratio;
+            }
+        }
+        return candidate;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        this.lock.writeLock().lock();
+        try {
+            this.active.channel.force(false);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.compaction.cancel(false);
+        // Wait for a compaction that is running right now
+        this.compactLock.lock();
+        try {
+            this.closed = true;
+            this.lock.writeLock().lock();
+            try {
+                this.active.channel.force(false);
+                for (Segment segment : this.segments.values()) {
+                    segment.channel.close();
+                }
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        } finally {
+            this.compactLock.unlock();
+        }
+    }
+
+    private static final class Segment {
+
+        final int id;
+        final long generation;
+        final File file;
+        final FileChannel channel;
+        long size;
+        long live;
+
+        Segment(int id, long generation, File file, FileChannel channel) {
+            this.id = id;
+            this.generation = generation;
+            this.file = file;
+            this.channel = channel;
+        }
+
+    }
+
+}
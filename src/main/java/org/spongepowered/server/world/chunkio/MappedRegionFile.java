@@ -0,0 +1,179 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.world.chunkio;
+
+import net.minecraft.nbt.NBTTagCompound;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * A read-only view of a region file that is mapped into memory. In contrast
+ * to the vanilla {@link net.minecraft.world.chunk.storage.RegionFile}, many
+ * threads can read different chunks of the same region at the same time
+ * without any locking.
+ *
+ * <p>The mapping does not protect against concurrent writes to the region
+ * file. Callers need to make sure that no chunk was written while they were
+ * reading, see {@link AsyncAnvilChunkLoader#read}.</p>
+ */
+public final class MappedRegionFile {
+
+    private static final int SECTOR_SIZE = 4096;
+    private static final int MAX_CACHED_FILES = 256; // Same limit as RegionFileCache
+
+    private static final Map<File, MappedRegionFile> cache = new ConcurrentHashMap<>();
+
+    private final File file;
+    private volatile MappedByteBuffer buffer;
+
+    private MappedRegionFile(File file, MappedByteBuffer buffer) {
+        this.file = file;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Reads the data of the given chunk from the mapped region file.
+     *
+     * @param worldDir The directory that contains the region directory
+     * @param x The x coordinate of the chunk
+     * @param z The z coordinate of the chunk
+     * @return The chunk data, or null if the chunk is not stored
+     * @throws IOException If the region file could not be mapped or the data
+     *     is corrupted
+     */
+    @Nullable
+    public static NBTTagCompound readChunk(File worldDir, int x, int z) throws IOException {
+        final File file = new File(worldDir, "region/r." + (x >> 5) + "." + (z >> 5) + ".mca");
+        MappedRegionFile region = cache.get(file);
+        if (region == null) {
+            if (!file.isFile()) {
+                return null; // Don't create region files for reads
+            }
+
+            if (cache.size() >= MAX_CACHED_FILES) {
+                cache.clear(); // Mappings are released once they are no longer referenced
+            }
+
+            try {
+                region = cache.computeIfAbsent(file, MappedRegionFile::map);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+
+        return region.readChunk(x & 31, z & 31);
+    }
+
+    /**
+     * Removes all mapped region files from the cache, e.g. when a world is
+     * unloaded.
+     */
+    public static void clearCache() {
+        cache.clear();
+    }
+
+    /**
+     * Removes the mapped region files of a single world from the cache.
+     *
+     * @param worldDir The directory that contains the region directory
+     */
+    public static void clearCache(File worldDir) {
+        final File regionDir = new File(worldDir, "region");
+        cache.keySet().removeIf(file -> regionDir.equals(file.getParentFile()));
+    }
+
+    private static MappedRegionFile map(File file) {
+        try {
+            return new MappedRegionFile(file, mapFile(file));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static MappedByteBuffer mapFile(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), Integer.MAX_VALUE));
+        }
+    }
+
+    @Nullable
+    private NBTTagCompound readChunk(int x, int z) throws IOException {
+        final long readStart = System.nanoTime();
+        ByteBuffer buffer = this.buffer;
+        if (buffer.capacity() < SECTOR_SIZE * 2) {
+            return null; // Header is not complete
+        }
+
+        final int offset = buffer.getInt((x + z * 32) * 4);
+        if (offset == 0) {
+            return null;
+        }
+
+        final long start = (long) (offset >>> 8) * SECTOR_SIZE;
+        final long end = start + (long) (offset & 0xFF) * SECTOR_SIZE;
+        if (end > buffer.capacity()) {
+            // The region file has grown since it was mapped
+            buffer = remap();
+            if (end > buffer.capacity()) {
+                return null;
+            }
+        }
+
+        final int length = buffer.getInt((int) start);
+        if (length <= 0 || length > end - start - 4) {
+            return null;
+        }
+
+        final byte version = buffer.get((int) start + 4);
+        final ByteBuffer data = buffer.duplicate();
+        data.position((int) start + 5);
+
+        // Inflater can't read from a ByteBuffer directly, copy the compressed data to the reused input buffer
+        final ChunkDecompressor decompressor = ChunkDecompressor.get();
+        data.get(decompressor.input(length - 1), 0, length - 1);
+        ChunkIOMetrics.READ.record(System.nanoTime() - readStart);
+        return decompressor.decode(length - 1, version);
+    }
+
+    private synchronized ByteBuffer remap() throws IOException {
+        MappedByteBuffer buffer = this.buffer;
+        if (buffer.capacity() < this.file.length()) {
+            this.buffer = buffer = mapFile(this.file);
+        }
+        return buffer;
+    }
+
+}
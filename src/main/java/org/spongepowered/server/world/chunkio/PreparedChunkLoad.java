@@ -0,0 +1,62 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.world.chunkio;
+
+import net.minecraft.block.Block;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.util.math.BlockPos;
+
+/**
+ * The parts of a loaded chunk that can only be added to the world on the
+ * main thread, decoded as far as possible on the Chunk I/O thread.
+ *
+ * @see AsyncAnvilChunkLoader#prepareLoad(NBTTagCompound)
+ * @see AsyncAnvilChunkLoader#loadEntities(net.minecraft.world.World, net.minecraft.world.chunk.Chunk, PreparedChunkLoad)
+ */
+public final class PreparedChunkLoad {
+
+    // Entities need the world to be constructed
+    final NBTTagList entities;
+
+    // Tile entities are created through TileEntity.create, which needs the world
+    final NBTTagCompound[] tileEntities;
+
+    // Scheduled block updates
+    final BlockPos[] tickPositions;
+    final Block[] tickBlocks;
+    final int[] tickDelays;
+    final int[] tickPriorities;
+
+    PreparedChunkLoad(NBTTagList entities, NBTTagCompound[] tileEntities, BlockPos[] tickPositions, Block[] tickBlocks, int[] tickDelays, int[] tickPriorities) {
+        this.entities = entities;
+        this.tileEntities = tileEntities;
+        this.tickPositions = tickPositions;
+        this.tickBlocks = tickBlocks;
+        this.tickDelays = tickDelays;
+        this.tickPriorities = tickPriorities;
+    }
+
+}
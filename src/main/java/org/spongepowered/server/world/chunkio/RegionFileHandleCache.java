@@ -0,0 +1,490 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.world.chunkio;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.chunk.storage.RegionFile;
+import org.spongepowered.common.SpongeImpl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nullable;
+
+/**
+ * The open region files of each world, replacing the global
+ * {@link net.minecraft.world.chunk.storage.RegionFileCache} which closes all
+ * region files at once when it is full.
+ *
+ * <p>Each world keeps up to {@link ChunkIOSettings#REGION_CACHE_SIZE} region
+ * files open and evicts the least recently used one when another is opened.
+ * Region files that are in use through a {@link Handle} from
+ * {@link #acquire} are only closed once the last handle was released, so
+ * reads and writes never race with closing the file. Region files returned
+ * by {@link #get} for vanilla code are not tracked, so evicted region files
+ * are closed after a grace period at the earliest. A region file that is
+ * requested again before it was closed is reused instead of being opened a
+ * second time, since two handles for the same file would not see each
+ * other's sector allocations.</p>
+ */
+public final class RegionFileHandleCache {
+
+    private static final long CLOSE_DELAY_SECONDS = 10;
+
+    private static final Map<File, WorldRegions> worlds = new ConcurrentHashMap<>();
+
+    private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "Region File I/O Thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder evictions = new LongAdder();
+
+    private RegionFileHandleCache() {
+    }
+
+    /**
+     * Returns the region file that contains the given chunk, opening it if
+     * necessary. The region file is created if it doesn't exist yet.
+     *
+     * <p>The region file is not kept open while it is used, prefer
+     * {@link #acquire} for reading and writing chunks. This is safe to call
+     * asynchronously from a separate thread.</p>
+     *
+     * @param worldDir The directory that contains the region directory
+     * @param x The x coordinate of the chunk
+     * @param z The z coordinate of the chunk
+     * @return The region file
+     */
+    public static RegionFile get(File worldDir, int x, int z) {
+        return lookup(worldDir, x, z, false).region;
+    }
+
+    /**
+     * Returns a handle of the region file that contains the given chunk,
+     * opening it if necessary. The region file is created if it doesn't
+     * exist yet. It stays open until the handle was closed, which must
+     * happen exactly once.
+     *
+     * <p>This is safe to call asynchronously from a separate thread.</p>
+     *
+     * @param worldDir The directory that contains the region directory
+     * @param x The x coordinate of the chunk
+     * @param z The z coordinate of the chunk
+     * @return The handle of the region file
+     */
+    public static Handle acquire(File worldDir, int x, int z) {
+        return lookup(worldDir, x, z, true);
+    }
+
+    private static Handle lookup(File worldDir, int x, int z, boolean acquire) {
+        final long key = ChunkPos.asLong(x >> 5, z >> 5);
+        while (true) {
+            final WorldRegions regions = worlds.computeIfAbsent(worldDir, WorldRegions::new);
+
+            final CompletableFuture<Handle> opening;
+            boolean open = false;
+            synchronized (regions) {
+                Handle handle = regions.get(key);
+                if (handle != null) {
+                    hits.increment();
+                    if (acquire) {
+                        handle.references++;
+                    }
+                    return handle;
+                }
+
+                misses.increment();
+                CompletableFuture<Handle> future = regions.opening.get(key);
+                if (future == null) {
+                    future = new CompletableFuture<>();
+                    regions.opening.put(key, future);
+                    open = true;
+                }
+                opening = future;
+            }
+
+            final Handle handle;
+            if (open) {
+                // Open outside of the lock, so other regions of the world stay available
+                handle = regions.open(key, opening);
+            } else {
+                try {
+                    handle = opening.join(); // Opened by another thread right now
+                } catch (CompletionException e) {
+                    throw (RuntimeException) e.getCause();
+                }
+            }
+
+            if (!acquire) {
+                return handle;
+            }
+
+            synchronized (regions) {
+                if (!handle.detached) {
+                    handle.references++;
+                    return handle;
+                }
+            }
+            // Closed right after it was opened, e.g. because the world was unloaded, open it again
+        }
+    }
+
+    /**
+     * Returns the region file that contains the given chunk, unless the
+     * region file doesn't exist.
+     *
+     * @param worldDir The directory that contains the region directory
+     * @param x The x coordinate of the chunk
+     * @param z The z coordinate of the chunk
+     * @return The region file, or null if it doesn't exist
+     */
+    @Nullable
+    public static RegionFile getIfExists(File worldDir, int x, int z) {
+        final WorldRegions regions = worlds.get(worldDir);
+        if (regions != null) {
+            synchronized (regions) {
+                final Handle handle = regions.get(ChunkPos.asLong(x >> 5, z >> 5));
+                if (handle != null) {
+                    hits.increment();
+                    return handle.region;
+                }
+            }
+        }
+
+        return getFile(worldDir, x >> 5, z >> 5).exists() ? get(worldDir, x, z) : null;
+    }
+
+    /**
+     * Opens the region file that contains the given chunk on a separate
+     * thread, so it is already open once the chunk is read. Region files that
+     * don't exist yet are not created.
+     *
+     * @param worldDir The directory that contains the region directory
+     * @param x The x coordinate of the chunk
+     * @param z The z coordinate of the chunk
+     */
+    public static void openAsync(File worldDir, int x, int z) {
+        final WorldRegions regions = worlds.get(worldDir);
+        if (regions != null) {
+            final long key = ChunkPos.asLong(x >> 5, z >> 5);
+            synchronized (regions) {
+                if (regions.contains(key) || regions.opening.containsKey(key)) {
+                    return;
+                }
+            }
+        }
+
+        executor.execute(() -> getIfExists(worldDir, x, z));
+    }
+
+    /**
+     * Closes all region files of all worlds, e.g. when the server is
+     * stopped. Pending chunk saves must be written before. Region files that
+     * are still in use are closed once they were released.
+     */
+    public static void closeAll() {
+        for (WorldRegions regions : worlds.values()) {
+            regions.closeAll();
+        }
+
+        MappedRegionFile.clearCache();
+    }
+
+    /**
+     * Closes all region files of a world, e.g. once the world was unloaded.
+     * Pending chunk saves of the world must be written before. Region files
+     * that are still in use are closed once they were released.
+     *
+     * @param worldDir The directory that contains the region directory
+     */
+    public static void close(File worldDir) {
+        final WorldRegions regions = worlds.remove(worldDir);
+        if (regions != null) {
+            regions.closeAll();
+        }
+
+        MappedRegionFile.clearCache(worldDir);
+    }
+
+    private static void close(RegionFile region) {
+        try {
+            synchronized (region) {
+                region.close();
+            }
+        } catch (IOException e) {
+            SpongeImpl.getLogger().error("Failed to close region file", e);
+        }
+    }
+
+    private static File getFile(File worldDir, int regionX, int regionZ) {
+        return new File(worldDir, "region/r." + regionX + "." + regionZ + ".mca");
+    }
+
+    /**
+     * Returns the number of region file requests that were served by an
+     * open region file.
+     *
+     * @return The number of cache hits
+     */
+    public static long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of region file requests that had to open the region
+     * file.
+     *
+     * @return The number of cache misses
+     */
+    public static long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of region files that were closed to make room for
+     * other region files.
+     *
+     * @return The number of evictions
+     */
+    public static long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the fraction of region file requests that were served by an
+     * open region file.
+     *
+     * @return The cache hit rate, between 0 and 1
+     */
+    public static double getHitRate() {
+        final long hits = getHits();
+        final long total = hits + getMisses();
+        return total > 0 ? (double) hits / total : 0;
+    }
+
+    /**
+     * Returns the number of region files that are currently open, across
+     * all worlds.
+     *
+     * @return The number of open region files
+     */
+    public static int getOpenCount() {
+        int count = 0;
+        for (WorldRegions regions : worlds.values()) {
+            synchronized (regions) {
+                count += regions.open.size() + regions.closing.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * A region file that is kept open until the handle is closed.
+     */
+    public static final class Handle implements AutoCloseable {
+
+        private final WorldRegions regions;
+        private final RegionFile region;
+
+        // Both guarded by the WorldRegions
+        private int references;
+        // Removed from the cache, closed once the last reference was released
+        private boolean detached;
+
+        Handle(WorldRegions regions, RegionFile region) {
+            this.regions = regions;
+            this.region = region;
+        }
+
+        public RegionFile getRegion() {
+            return this.region;
+        }
+
+        /**
+         * Releases the region file.
+         */
+        @Override
+        public void close() {
+            this.regions.release(this);
+        }
+
+    }
+
+    private static final class WorldRegions {
+
+        private final File worldDir;
+
+        // All guarded by this, keyed by the packed region coordinates
+        // Access order is the eviction order
+        private final Long2ObjectLinkedOpenHashMap<Handle> open = new Long2ObjectLinkedOpenHashMap<>();
+        // Evicted, but not closed yet
+        private final Long2ObjectMap<Handle> closing = new Long2ObjectOpenHashMap<>();
+        private final Long2ObjectMap<CompletableFuture<Handle>> opening = new Long2ObjectOpenHashMap<>();
+
+        WorldRegions(File worldDir) {
+            this.worldDir = worldDir;
+        }
+
+        boolean contains(long key) {
+            return this.open.containsKey(key) || this.closing.containsKey(key);
+        }
+
+        @Nullable
+        Handle get(long key) {
+            Handle handle = this.open.getAndMoveToLast(key);
+            if (handle == null) {
+                handle = this.closing.remove(key);
+                if (handle != null) {
+                    // Requested again before it was closed
+                    this.add(key, handle);
+                }
+            }
+            return handle;
+        }
+
+        Handle open(long key, CompletableFuture<Handle> future) {
+            final Handle handle;
+            try {
+                final File dir = new File(this.worldDir, "region");
+                if (!dir.exists()) {
+                    dir.mkdirs();
+                }
+
+                handle = new Handle(this, new RegionFile(getFile(this.worldDir, (int) key, (int) (key >> 32))));
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    this.opening.remove(key);
+                }
+                future.completeExceptionally(e);
+                throw e;
+            }
+
+            synchronized (this) {
+                this.opening.remove(key);
+                this.add(key, handle);
+            }
+            future.complete(handle);
+            return handle;
+        }
+
+        private void add(long key, Handle handle) {
+            this.open.putAndMoveToLast(key, handle);
+            if (this.open.size() > ChunkIOSettings.REGION_CACHE_SIZE) {
+                final long eldest = this.open.firstLongKey();
+                final Handle evicted = this.open.removeFirst();
+                this.closing.put(eldest, evicted);
+                evictions.increment();
+                executor.schedule(() -> this.close(eldest, evicted), CLOSE_DELAY_SECONDS, TimeUnit.SECONDS);
+            }
+        }
+
+        private void close(long key, Handle handle) {
+            synchronized (this) {
+                if (this.closing.get(key) != handle) {
+                    return; // Reused or already closed
+                }
+                this.closing.remove(key);
+                if (!detach(handle)) {
+                    return; // Closed once released
+                }
+            }
+
+            RegionFileHandleCache.close(handle.region);
+        }
+
+        void release(Handle handle) {
+            synchronized (this) {
+                if (--handle.references > 0 || !handle.detached) {
+                    return;
+                }
+            }
+
+            RegionFileHandleCache.close(handle.region);
+        }
+
+        /**
+         * Removes the handle from the cache.
+         *
+         * @return True if it can be closed right away
+         */
+        private boolean detach(Handle handle) {
+            handle.detached = true;
+            return handle.references == 0;
+        }
+
+        void closeAll() {
+            final List<CompletableFuture<Handle>> opening;
+            synchronized (this) {
+                opening = new ArrayList<>(this.opening.values());
+            }
+            for (CompletableFuture<Handle> future : opening) {
+                // Wait for region files that are opened right now, so they are closed as well
+                try {
+                    future.join();
+                } catch (CompletionException ignored) {
+                }
+            }
+
+            final List<Handle> closing = new ArrayList<>();
+            synchronized (this) {
+                for (Handle handle : this.open.values()) {
+                    if (detach(handle)) {
+                        closing.add(handle);
+                    }
+                }
+                for (Handle handle : this.closing.values()) {
+                    if (detach(handle)) {
+                        closing.add(handle);
+                    }
+                }
+                this.open.clear();
+                this.closing.clear();
+            }
+
+            for (Handle handle : closing) {
+                RegionFileHandleCache.close(handle.region);
+            }
+        }
+
+    }
+
+}
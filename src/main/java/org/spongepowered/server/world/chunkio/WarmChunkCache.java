@@ -0,0 +1,170 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.world.chunkio;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import net.minecraft.util.math.ChunkPos;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nullable;
+
+/**
+ * The compressed data of chunks of a single chunk loader that were
+ * recently unloaded and written, so chunks that are loaded again shortly
+ * after don't need to be read from the region file. This happens a lot
+ * when players move back and forth along the edge of their view distance.
+ *
+ * <p>The data is stored exactly as it was written to the region file.
+ * Entries are added by the {@link ChunkSaveQueue} only once the chunk was
+ * written, removed when the chunk is saved again, and expire after
+ * {@link ChunkIOSettings#WARM_CACHE_EXPIRY_SECONDS}. The oldest entries are
+ * evicted when the cache grows larger than
+ * {@link ChunkIOSettings#WARM_CACHE_SIZE_MB}.</p>
+ */
+public final class WarmChunkCache {
+
+    private static final long EXPIRY_NANOS = TimeUnit.SECONDS.toNanos(ChunkIOSettings.WARM_CACHE_EXPIRY_SECONDS);
+    private static final long MAX_BYTES = ChunkIOSettings.WARM_CACHE_SIZE_MB * 1024L * 1024L;
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+
+    // Insertion order is also the expiry order
+    private final Long2ObjectLinkedOpenHashMap<Entry> entries = new Long2ObjectLinkedOpenHashMap<>();
+    private long bytes;
+
+    /**
+     * Stores the compressed data of a chunk that was unloaded and written.
+     *
+     * @param x The x coordinate of the chunk
+     * @param z The z coordinate of the chunk
+     * @param data The data as written to the region file
+     */
+    synchronized void put(int x, int z, byte[] data) {
+        if (MAX_BYTES <= 0 || data.length > MAX_BYTES) {
+            return;
+        }
+
+        final Entry previous = this.entries.remove(ChunkPos.asLong(x, z));
+        if (previous != null) {
+            this.bytes -= previous.data.length;
+        }
+
+        this.entries.putAndMoveToLast(ChunkPos.asLong(x, z), new Entry(data, System.nanoTime() + EXPIRY_NANOS));
+        this.bytes += data.length;
+
+        final long now = System.nanoTime();
+        while (!this.entries.isEmpty() && (this.bytes > MAX_BYTES || this.entries.get(this.entries.firstLongKey()).expiry - now < 0)) {
+            this.bytes -= this.entries.removeFirst().data.length;
+        }
+    }
+
+    /**
+     * Removes and returns the compressed data of the chunk. The chunk is
+     * added again when it is unloaded the next time.
+     *
+     * <p>This is safe to call asynchronously from a separate thread.</p>
+     *
+     * @param x The x coordinate of the chunk
+     * @param z The z coordinate of the chunk
+     * @return The compressed chunk data, or null if the chunk isn't cached
+     */
+    @Nullable
+    synchronized byte[] take(int x, int z) {
+        final Entry entry = this.entries.remove(ChunkPos.asLong(x, z));
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+
+        this.bytes -= entry.data.length;
+        if (entry.expiry - System.nanoTime() < 0) {
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        return entry.data;
+    }
+
+    /**
+     * Discards the data of the chunk because it was saved again.
+     *
+     * @param x The x coordinate of the chunk
+     * @param z The z coordinate of the chunk
+     */
+    public synchronized void invalidate(int x, int z) {
+        final Entry entry = this.entries.remove(ChunkPos.asLong(x, z));
+        if (entry != null) {
+            this.bytes -= entry.data.length;
+        }
+    }
+
+    /**
+     * Returns the number of chunk loads that were served by a warm cache.
+     *
+     * @return The number of cache hits
+     */
+    public static long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of chunk loads that had to be read from the region
+     * files.
+     *
+     * @return The number of cache misses
+     */
+    public static long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the fraction of chunk loads read from disk that were served
+     * by a warm cache.
+     *
+     * @return The cache hit rate, between 0 and 1
+     */
+    public static double getHitRate() {
+        final long hits = getHits();
+        final long total = hits + getMisses();
+        return total > 0 ? (double) hits / total : 0;
+    }
+
+    private static final class Entry {
+
+        final byte[] data;
+        final long expiry;
+
+        Entry(byte[] data, long expiry) {
+            this.data = data;
+            this.expiry = expiry;
+        }
+
+    }
+
+}
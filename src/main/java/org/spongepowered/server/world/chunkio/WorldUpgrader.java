@@ -0,0 +1,231 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.world.chunkio;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.datafix.DataFixer;
+import net.minecraft.util.datafix.FixTypes;
+import net.minecraft.util.math.ChunkPos;
+import org.spongepowered.common.SpongeImpl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Upgrades all chunks of a world to the current data version before the
+ * server is started, so the data fixers don't need to run when the chunks
+ * are loaded. Started with the {@code --upgrade-world} command line option.
+ *
+ * <p>All chunk storages of the world are upgraded, including its dimensions
+ * and additional worlds stored in its directory, in both the Anvil and the
+ * chunk log format. The regions of each storage are upgraded in parallel,
+ * with each region upgraded by a single thread.</p>
+ */
+public final class WorldUpgrader {
+
+    /**
+     * The data version chunks are saved with, see
+     * {@code AnvilChunkLoader.saveChunk}. The {@link DataFixer} returns
+     * chunks with this version without changing them.
+     */
+    static final int DATA_VERSION = 1343;
+
+    private static final int REGION_SHIFT = 5;
+
+    private final DataFixer fixer;
+
+    private final AtomicLong upgraded = new AtomicLong();
+    private final AtomicLong upToDate = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    private WorldUpgrader(DataFixer fixer) {
+        this.fixer = fixer;
+    }
+
+    /**
+     * Returns the name of the main world configured in the
+     * {@code server.properties} in the working directory.
+     *
+     * @return The level name
+     */
+    public static String getLevelName() {
+        final Properties properties = new Properties();
+        final File file = new File("server.properties");
+        if (file.isFile()) {
+            try (InputStream in = new FileInputStream(file)) {
+                properties.load(in);
+            } catch (IOException e) {
+                SpongeImpl.getLogger().warn("Failed to read {}", file, e);
+            }
+        }
+        return properties.getProperty("level-name", "world");
+    }
+
+    /**
+     * Upgrades all chunk storages in the world directory.
+     *
+     * @param worldDir The directory of the world
+     * @param fixer The data fixer to upgrade the chunks with
+     * @throws IOException If the world directory could not be searched
+     */
+    public static void upgrade(File worldDir, DataFixer fixer) throws IOException {
+        new WorldUpgrader(fixer).run(worldDir);
+    }
+
+    private void run(File worldDir) throws IOException {
+        if (!worldDir.isDirectory()) {
+            SpongeImpl.getLogger().warn("World {} does not exist, nothing to upgrade", worldDir);
+            return;
+        }
+
+        final List<File> saveLocations = ChunkStorageConverter.findSaveLocations(worldDir);
+
+        final int threads = Runtime.getRuntime().availableProcessors();
+        SpongeImpl.getLogger().info("Upgrading {} chunk storages in {} to data version {} using {} threads",
+                saveLocations.size(), worldDir, DATA_VERSION, threads);
+
+        final long start = System.nanoTime();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "World Upgrade Thread");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            for (File saveLocation : saveLocations) {
+                try {
+                    upgradeStorage(saveLocation, executor);
+                } catch (IOException e) {
+                    SpongeImpl.getLogger().error("Failed to upgrade chunk storage in {}", saveLocation, e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            SpongeImpl.getLogger().warn("Interrupted while upgrading the world");
+        } finally {
+            executor.shutdownNow();
+        }
+
+        SpongeImpl.getLogger().info("Upgraded {} chunks in {} s, {} chunks were already up to date, {} chunks could not be upgraded",
+                this.upgraded.get(), (System.nanoTime() - start) / 1_000_000_000, this.upToDate.get(), this.failed.get());
+    }
+
+    private void upgradeStorage(File saveLocation, ExecutorService executor) throws IOException, InterruptedException {
+        final ChunkStorage storage = ChunkStorage.open(saveLocation);
+        try {
+            final Long2ObjectMap<LongList> regions = new Long2ObjectOpenHashMap<>();
+            for (long key : storage.list()) {
+                final long region = ChunkPos.asLong((int) key >> REGION_SHIFT, (int) (key >> 32) >> REGION_SHIFT);
+                LongList chunks = regions.get(region);
+                if (chunks == null) {
+                    chunks = new LongArrayList();
+                    regions.put(region, chunks);
+                }
+                chunks.add(key);
+            }
+
+            // Each region is upgraded by a single thread
+            final AtomicInteger regionsDone = new AtomicInteger();
+            final List<Future<?>> futures = new ArrayList<>(regions.size());
+            for (LongList chunks : regions.values()) {
+                futures.add(executor.submit(() -> upgradeRegion(saveLocation, storage, chunks, regionsDone, regions.size())));
+            }
+
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    SpongeImpl.getLogger().error("Failed to upgrade region in {}", saveLocation, e.getCause());
+                }
+            }
+        } finally {
+            storage.close();
+        }
+    }
+
+    private void upgradeRegion(File saveLocation, ChunkStorage storage, LongList chunks, AtomicInteger regionsDone, int total) {
+        for (int i = 0; i < chunks.size(); i++) {
+            final long key = chunks.getLong(i);
+            upgradeChunk(saveLocation, storage, (int) key, (int) (key >> 32));
+        }
+
+        final int done = regionsDone.incrementAndGet();
+        if (done % 100 == 0 || done == total) {
+            SpongeImpl.getLogger().info("Upgraded {} / {} regions in {}", done, total, saveLocation);
+        }
+    }
+
+    private void upgradeChunk(File saveLocation, ChunkStorage storage, int x, int z) {
+        try {
+            final NBTTagCompound compound = storage.read(x, z);
+            if (compound == null) {
+                return;
+            }
+
+            // Also skips chunks upgraded by an earlier run
+            if (getDataVersion(compound) >= DATA_VERSION) {
+                this.upToDate.incrementAndGet();
+                return;
+            }
+
+            final NBTTagCompound fixed = this.fixer.process(FixTypes.CHUNK, compound);
+            // The data fixer doesn't update the version, the chunk loader only sets it when saving
+            fixed.setInteger("DataVersion", DATA_VERSION);
+            final byte[] data = ChunkCompressor.get().encode(fixed);
+            storage.write(new ChunkPos[] {new ChunkPos(x, z)}, new byte[][] {data}, new int[] {data.length});
+            this.upgraded.incrementAndGet();
+        } catch (IOException | RuntimeException e) {
+            this.failed.incrementAndGet();
+            SpongeImpl.getLogger().error("Failed to upgrade chunk {}, {} in {}", x, z, saveLocation, e);
+        }
+    }
+
+    /**
+     * Returns the data version the chunk data was saved with.
+     *
+     * @param compound The chunk data
+     * @return The data version, or -1 if the chunk was saved before data
+     *     versions were introduced
+     */
+    static int getDataVersion(NBTTagCompound compound) {
+        return compound.hasKey("DataVersion", 99) ? compound.getInteger("DataVersion") : -1;
+    }
+
+}
@@ -0,0 +1,244 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.world.chunkio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.math.ChunkPos;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.spongepowered.lwts.runner.LaunchWrapperTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+@RunWith(LaunchWrapperTestRunner.class)
+public class ChunkSaveQueueTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final ChunkPos pos = new ChunkPos(3, -7);
+
+    private BlockingStorage storage;
+    private WarmChunkCache warmCache;
+    private ChunkSaveQueue queue;
+
+    @Before
+    public void setUp() {
+        this.storage = new BlockingStorage();
+        this.warmCache = new WarmChunkCache();
+        this.queue = new ChunkSaveQueue(new File("test"), this.storage, this.warmCache);
+    }
+
+    @After
+    public void tearDown() {
+        // Don't leave the save thread blocked for the next test
+        this.storage.permits.release(1000);
+    }
+
+    @Test
+    public void readableUntilWritten() throws Exception {
+        this.queue.add(this.pos, createChunk(1), true);
+        this.storage.awaitWrite();
+
+        // The write has started, but didn't finish yet
+        assertTrue(this.queue.contains(this.pos.x, this.pos.z));
+        assertEquals(1, getMarker(this.queue.get(this.pos.x, this.pos.z)));
+        assertNull(this.warmCache.take(this.pos.x, this.pos.z));
+
+        this.storage.permits.release();
+        awaitWritten();
+
+        assertEquals(1, getMarker(decode(this.storage.get(this.pos))));
+        assertNull(this.queue.get(this.pos.x, this.pos.z));
+    }
+
+    @Test
+    public void unloadedChunkIsCachedOnceWritten() throws Exception {
+        this.queue.add(this.pos, createChunk(1), true);
+        this.storage.awaitWrite();
+        this.storage.permits.release();
+        awaitWritten();
+
+        final byte[] cached = this.warmCache.take(this.pos.x, this.pos.z);
+        assertNotNull(cached);
+        assertArrayEquals(this.storage.get(this.pos), cached);
+    }
+
+    @Test
+    public void loadedChunkIsNotCached() throws Exception {
+        this.queue.add(this.pos, createChunk(1), false);
+        this.storage.awaitWrite();
+        this.storage.permits.release();
+        awaitWritten();
+
+        assertNull(this.warmCache.take(this.pos.x, this.pos.z));
+    }
+
+    @Test
+    public void queuedAgainWhileWriting() throws Exception {
+        this.queue.add(this.pos, createChunk(1), true);
+        this.storage.awaitWrite();
+
+        // Replaces the data that is written right now
+        this.queue.add(this.pos, createChunk(2), true);
+        assertEquals(2, getMarker(this.queue.get(this.pos.x, this.pos.z)));
+
+        this.storage.permits.release();
+        // The second write only starts once the first one completed
+        this.storage.awaitWrite();
+
+        assertEquals(1, getMarker(decode(this.storage.get(this.pos))));
+        // The newer data must not be removed, and the older data must not be cached
+        assertTrue(this.queue.contains(this.pos.x, this.pos.z));
+        assertEquals(2, getMarker(this.queue.get(this.pos.x, this.pos.z)));
+        assertNull(this.warmCache.take(this.pos.x, this.pos.z));
+
+        this.storage.permits.release();
+        awaitWritten();
+
+        assertEquals(2, getMarker(decode(this.storage.get(this.pos))));
+        assertEquals(2, getMarker(decode(this.warmCache.take(this.pos.x, this.pos.z))));
+    }
+
+    private void awaitWritten() throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (this.queue.contains(this.pos.x, this.pos.z)) {
+            assertTrue("Chunk was not written", System.nanoTime() - deadline < 0);
+            Thread.sleep(1);
+        }
+    }
+
+    private static NBTTagCompound createChunk(int marker) {
+        final NBTTagCompound level = new NBTTagCompound();
+        level.setInteger("Marker", marker);
+        final NBTTagCompound compound = new NBTTagCompound();
+        compound.setTag("Level", level);
+        return compound;
+    }
+
+    private static int getMarker(@Nullable NBTTagCompound compound) {
+        assertNotNull(compound);
+        return compound.getCompoundTag("Level").getInteger("Marker");
+    }
+
+    @Nullable
+    private static NBTTagCompound decode(@Nullable byte[] data) throws IOException {
+        return data != null ? ChunkDecompressor.get().decodeDeflated(data) : null;
+    }
+
+    /**
+     * Stores the chunks in memory, and blocks each write until it was
+     * allowed by the test.
+     */
+    private static final class BlockingStorage implements ChunkStorage {
+
+        final Semaphore permits = new Semaphore(0);
+        private final Semaphore started = new Semaphore(0);
+        private final Long2ObjectMap<byte[]> chunks = new Long2ObjectOpenHashMap<>();
+
+        void awaitWrite() throws InterruptedException {
+            assertTrue("Chunk write didn't start", this.started.tryAcquire(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+
+        @Nullable
+        synchronized byte[] get(ChunkPos pos) {
+            return this.chunks.get(ChunkPos.asLong(pos.x, pos.z));
+        }
+
+        @Override
+        public ChunkIOSettings.StorageFormat getFormat() {
+            return ChunkIOSettings.StorageFormat.ANVIL;
+        }
+
+        @Nullable
+        @Override
+        public NBTTagCompound read(int x, int z) throws IOException {
+            return decode(readCompressed(x, z));
+        }
+
+        @Nullable
+        @Override
+        public synchronized byte[] readCompressed(int x, int z) {
+            return this.chunks.get(ChunkPos.asLong(x, z));
+        }
+
+        @Override
+        public void write(ChunkPos[] positions, byte[][] data, int[] lengths) throws IOException {
+            this.started.release();
+            try {
+                assertTrue("Chunk write was not allowed", this.permits.tryAcquire(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+
+            synchronized (this) {
+                for (int i = 0; i < positions.length; i++) {
+                    if (data[i] != null) {
+                        this.chunks.put(ChunkPos.asLong(positions[i].x, positions[i].z), data[i].clone());
+                    }
+                }
+            }
+        }
+
+        @Override
+        public synchronized boolean exists(int x, int z) {
+            return this.chunks.containsKey(ChunkPos.asLong(x, z));
+        }
+
+        @Override
+        public int getLocality(int x, int z) {
+            return 0;
+        }
+
+        @Override
+        public synchronized long[] list() {
+            return this.chunks.keySet().toLongArray();
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+}
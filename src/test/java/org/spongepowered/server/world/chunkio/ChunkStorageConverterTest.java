@@ -0,0 +1,140 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.world.chunkio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.math.ChunkPos;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.spongepowered.lwts.runner.LaunchWrapperTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+@RunWith(LaunchWrapperTestRunner.class)
+public class ChunkStorageConverterTest {
+
+    @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final Long2ObjectMap<byte[]> chunks = new Long2ObjectOpenHashMap<>();
+    private File worldDir;
+
+    @Before
+    public void setUp() throws IOException {
+        this.worldDir = this.folder.newFolder();
+
+        // Spread across multiple regions, including negative coordinates
+        final AnvilChunkStorage storage = new AnvilChunkStorage(this.worldDir);
+        try {
+            for (int x = -40; x < 40; x += 7) {
+                for (int z = -40; z < 40; z += 11) {
+                    final NBTTagCompound level = new NBTTagCompound();
+                    level.setInteger("xPos", x);
+                    level.setInteger("zPos", z);
+                    final NBTTagCompound compound = new NBTTagCompound();
+                    compound.setInteger("DataVersion", 1343);
+                    compound.setTag("Level", level);
+
+                    final byte[] data = ChunkCompressor.get().encode(compound);
+                    storage.write(new ChunkPos[] {new ChunkPos(x, z)}, new byte[][] {data}, new int[] {data.length});
+                    this.chunks.put(ChunkPos.asLong(x, z), data);
+                }
+            }
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        ChunkStorageConverter.convert(this.worldDir, ChunkIOSettings.StorageFormat.LOG);
+
+        assertTrue(dir("chunklog").isDirectory());
+        assertFalse(dir("region").exists());
+        assertTrue(dir("region.bak").isDirectory());
+        assertFalse(dir("chunkconvert.tmp").exists());
+        assertStored(new LogChunkStorage(dir("chunklog")));
+
+        ChunkStorageConverter.convert(this.worldDir, ChunkIOSettings.StorageFormat.ANVIL);
+
+        assertTrue(dir("region").isDirectory());
+        assertFalse(dir("chunklog").exists());
+        assertTrue(dir("chunklog.bak").isDirectory());
+        assertFalse(dir("chunkconvert.tmp").exists());
+        assertStored(new AnvilChunkStorage(this.worldDir));
+    }
+
+    @Test
+    public void existingBackupIsKept() throws IOException {
+        ChunkStorageConverter.convert(this.worldDir, ChunkIOSettings.StorageFormat.LOG);
+        ChunkStorageConverter.convert(this.worldDir, ChunkIOSettings.StorageFormat.ANVIL);
+        ChunkStorageConverter.convert(this.worldDir, ChunkIOSettings.StorageFormat.LOG);
+
+        assertTrue(dir("region.bak").isDirectory());
+        assertTrue(dir("region.1.bak").isDirectory());
+        assertStored(new LogChunkStorage(dir("chunklog")));
+    }
+
+    @Test
+    public void interruptedConversionIsDiscarded() throws IOException {
+        // Left over from a conversion that was interrupted
+        final File leftover = new File(dir("chunkconvert.tmp"), "chunklog");
+        Files.createDirectories(leftover.toPath());
+        Files.write(new File(leftover, "00000.log").toPath(), new byte[100]);
+
+        ChunkStorageConverter.convert(this.worldDir, ChunkIOSettings.StorageFormat.LOG);
+
+        assertFalse(dir("chunkconvert.tmp").exists());
+        assertStored(new LogChunkStorage(dir("chunklog")));
+    }
+
+    private File dir(String name) {
+        return new File(this.worldDir, name);
+    }
+
+    private void assertStored(ChunkStorage storage) throws IOException {
+        try {
+            assertEquals(this.chunks.size(), storage.list().length);
+            for (Long2ObjectMap.Entry<byte[]> entry : this.chunks.long2ObjectEntrySet()) {
+                final long key = entry.getLongKey();
+                assertArrayEquals(entry.getValue(), storage.readCompressed((int) key, (int) (key >> 32)));
+            }
+        } finally {
+            storage.close();
+        }
+    }
+
+}
@@ -0,0 +1,284 @@
+/*
+ * This file is part of Sponge, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.server.world.chunkio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.util.math.ChunkPos;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.spongepowered.lwts.runner.LaunchWrapperTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+@RunWith(LaunchWrapperTestRunner.class)
+public class LogChunkStorageTest {
+
+    private static final int SEGMENT_HEADER_SIZE = 16;
+    private static final int HEADER_SIZE = 16;
+
+    // Two records of this size fill a segment
+    private static final int RECORD_LENGTH = 600;
+    private static final long SEGMENT_SIZE = 1024;
+
+    @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final Random random = new Random(0);
+
+    @Test
+    public void roundTrip() throws Exception {
+        final File dir = this.folder.newFolder();
+        final NBTTagCompound compound = new NBTTagCompound();
+        compound.setInteger("DataVersion", 1343);
+        compound.setTag("Level", new NBTTagCompound());
+        final byte[] data = ChunkCompressor.get().encode(compound);
+
+        final LogChunkStorage storage = new LogChunkStorage(dir);
+        try {
+            assertNull(storage.read(5, -3));
+            assertFalse(storage.exists(5, -3));
+
+            write(storage, 5, -3, data);
+
+            assertTrue(storage.exists(5, -3));
+            assertEquals(compound, storage.read(5, -3));
+            assertArrayEquals(data, storage.readCompressed(5, -3));
+            assertArrayEquals(new long[] {ChunkPos.asLong(5, -3)}, storage.list());
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    public void latestRecordAfterReopen() throws Exception {
+        final File dir = this.folder.newFolder();
+        final byte[] first = randomData();
+        final byte[] second = randomData();
+
+        LogChunkStorage storage = new LogChunkStorage(dir);
+        write(storage, 0, 0, first);
+        write(storage, 0, 0, second);
+        storage.close();
+
+        storage = new LogChunkStorage(dir);
+        try {
+            assertArrayEquals(second, storage.readCompressed(0, 0));
+            assertEquals(HEADER_SIZE + RECORD_LENGTH, storage.getLiveBytes());
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    public void tornTailIsTruncated() throws Exception {
+        final File dir = this.folder.newFolder();
+        final byte[] first = randomData();
+        final byte[] second = randomData();
+
+        LogChunkStorage storage = new LogChunkStorage(dir);
+        write(storage, 0, 0, first);
+        write(storage, 1, 0, second);
+        storage.close();
+
+        final File segment = new File(dir, "00000.log");
+        final long length = segment.length();
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            // Header of a record that is longer than the rest of the file
+            file.seek(length);
+            file.write(ByteBuffer.allocate(HEADER_SIZE + 10).putInt(2).putInt(0).putInt(RECORD_LENGTH).putInt(0).array());
+        }
+
+        storage = new LogChunkStorage(dir);
+        try {
+            assertEquals(length, segment.length());
+            assertArrayEquals(first, storage.readCompressed(0, 0));
+            assertArrayEquals(second, storage.readCompressed(1, 0));
+            assertFalse(storage.exists(2, 0));
+
+            // Appended right after the last complete record
+            write(storage, 2, 0, first);
+        } finally {
+            storage.close();
+        }
+
+        storage = new LogChunkStorage(dir);
+        try {
+            assertArrayEquals(first, storage.readCompressed(2, 0));
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    public void corruptRecordIsCutOff() throws Exception {
+        final File dir = this.folder.newFolder();
+        final byte[] first = randomData();
+        final byte[] second = randomData();
+
+        LogChunkStorage storage = new LogChunkStorage(dir);
+        write(storage, 0, 0, first);
+        write(storage, 1, 0, second);
+        storage.close();
+
+        final File segment = new File(dir, "00000.log");
+        final long end = SEGMENT_HEADER_SIZE + HEADER_SIZE + RECORD_LENGTH;
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            // Flip a byte in the data of the second record, so its checksum doesn't match
+            file.seek(end + HEADER_SIZE + 100);
+            final int b = file.read();
+            file.seek(end + HEADER_SIZE + 100);
+            file.write(~b);
+        }
+
+        storage = new LogChunkStorage(dir);
+        try {
+            assertArrayEquals(first, storage.readCompressed(0, 0));
+            assertNull(storage.readCompressed(1, 0));
+            assertEquals(end, segment.length());
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    public void emptySegmentIsDeleted() throws Exception {
+        final File dir = this.folder.newFolder();
+        final byte[] data = randomData();
+
+        LogChunkStorage storage = new LogChunkStorage(dir);
+        write(storage, 0, 0, data);
+        storage.close();
+
+        // Created right before the server stopped
+        final File empty = new File(dir, "00001.log");
+        assertTrue(empty.createNewFile());
+
+        storage = new LogChunkStorage(dir);
+        try {
+            assertFalse(empty.exists());
+            assertArrayEquals(data, storage.readCompressed(0, 0));
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    public void compactionCopiesLiveRecords() throws Exception {
+        final File dir = this.folder.newFolder();
+        final byte[] a1 = randomData();
+        final byte[] a2 = randomData();
+        final byte[] b = randomData();
+        final byte[] c = randomData();
+        final byte[] d = randomData();
+
+        final LogChunkStorage storage = new LogChunkStorage(dir, SEGMENT_SIZE);
+        try {
+            write(storage, 0, 0, a1);
+            write(storage, 1, 0, b); // Segment 0 is full, only b is still live
+            write(storage, 0, 0, a2);
+            write(storage, 2, 0, c); // Segment 1 is full
+            write(storage, 3, 0, d);
+
+            storage.compact();
+
+            assertFalse(new File(dir, "00000.log").exists());
+            assertArrayEquals(a2, storage.readCompressed(0, 0));
+            assertArrayEquals(b, storage.readCompressed(1, 0));
+            assertArrayEquals(c, storage.readCompressed(2, 0));
+            assertArrayEquals(d, storage.readCompressed(3, 0));
+            assertEquals(4 * (HEADER_SIZE + RECORD_LENGTH), storage.getLiveBytes());
+            assertEquals(2 * SEGMENT_HEADER_SIZE + 4 * (HEADER_SIZE + RECORD_LENGTH), storage.getTotalBytes());
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    public void segmentIdsAreReused() throws Exception {
+        final File dir = this.folder.newFolder();
+        final byte[] a1 = randomData();
+        final byte[] a2 = randomData();
+        final byte[] a3 = randomData();
+
+        LogChunkStorage storage = new LogChunkStorage(dir, SEGMENT_SIZE);
+        write(storage, 0, 0, a1);
+        write(storage, 1, 0, randomData());
+        write(storage, 0, 0, a2);
+        write(storage, 1, 0, randomData()); // Segment 0 no longer has any live records
+        write(storage, 2, 0, randomData());
+
+        storage.compact();
+        assertFalse(new File(dir, "00000.log").exists());
+
+        write(storage, 3, 0, randomData()); // Segment 2 is full
+        write(storage, 0, 0, a3);
+        assertTrue(new File(dir, "00000.log").exists());
+        assertFalse(new File(dir, "00003.log").exists());
+        storage.close();
+
+        // The segment with the lowest id has the newest record
+        storage = new LogChunkStorage(dir, SEGMENT_SIZE);
+        try {
+            assertArrayEquals(a3, storage.readCompressed(0, 0));
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    public void compactionAfterCloseIsSkipped() throws Exception {
+        final File dir = this.folder.newFolder();
+        final LogChunkStorage storage = new LogChunkStorage(dir, SEGMENT_SIZE);
+        write(storage, 0, 0, randomData());
+        write(storage, 0, 0, randomData());
+        write(storage, 0, 0, randomData());
+        storage.close();
+
+        storage.compact();
+        assertTrue(new File(dir, "00000.log").exists());
+    }
+
+    private byte[] randomData() {
+        final byte[] data = new byte[RECORD_LENGTH];
+        this.random.nextBytes(data);
+        return data;
+    }
+
+    private static void write(LogChunkStorage storage, int x, int z, byte[] data) throws IOException {
+        storage.write(new ChunkPos[] {new ChunkPos(x, z)}, new byte[][] {data}, new int[] {data.length});
+    }
+
+}